@@ -0,0 +1,32 @@
+package pluginmanager.api.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Events annotated with this annotation are coalesced by the event bus: events of the same type and with the same coalescing key
+ * (see Event:getCoalescingKey()) replace each other until they are delivered, so handlers only receive the latest one.
+ * The pending event is delivered once the window has passed, once maxMerged events have been merged or when
+ * PluginManager:flushCoalescedEvents() is called, whichever happens first. The window has to be positive so the last
+ * event of a burst is always delivered, the event type is rejected when it is registered otherwise.
+ * 
+ * @author alexander
+ *
+ */
+@Target(ElementType.TYPE)
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Coalesce {
+	/**
+	 * @return the time in milliseconds a pending event waits for newer events before it is delivered, has to be positive
+	 */
+	long window() default 50;
+	
+	/**
+	 * @return the number of events merged into one before it is delivered right away, 0 for no limit
+	 */
+	int maxMerged() default 0;
+}
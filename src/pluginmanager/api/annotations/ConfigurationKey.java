@@ -0,0 +1,21 @@
+package pluginmanager.api.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field of a configuration class (see Plugin:configuration()) to a differently named key of the configuration.
+ * Fields without this annotation are bound to the key with the same name as the field.
+ * 
+ * @author alexander
+ *
+ */
+@Target(ElementType.FIELD)
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ConfigurationKey {
+	String value();
+}
@@ -15,4 +15,25 @@ import java.lang.annotation.Target;
 @Target(ElementType.METHOD) 
 public @interface EventHandler {
 	
+	/**
+	 * Pass this as the key to only receive events routed to the plugin the eventHandler belongs to, i.e. events whose routing
+	 * key is the id of the plugin.
+	 */
+	String OWN_PLUGIN = "#plugin";
+	
+	/**
+	 * Only events with this routing key (see Event:getRoutingKey()) are delivered to the eventHandler. Handlers without a key
+	 * receive all events of their type.
+	 * 
+	 * @return the routing key, or an empty String to receive all events
+	 */
+	String key() default "";
+	
+	/**
+	 * Handlers depending on the order eventHandlers are called in are never called in parallel (see @Parallel), they are
+	 * called one after another in their usual order, while the other handlers of the event run in parallel to them.
+	 * 
+	 * @return true if the eventHandler depends on the order of the handlers
+	 */
+	boolean ordered() default false;
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package pluginmanager.api.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The eventHandlers of events annotated with this annotation are called in parallel on the common fork-join pool, the sending
+ * thread takes part and sendEvent() returns once all of them are done. Use it for event types with many independent,
+ * CPU-heavy handlers. Handlers which depend on the order of the handlers (see EventHandler:ordered()) are still called one after
+ * another, in their usual order.
+ * 
+ * Exceptions are collected in the order of the handlers, just like for sequential dispatch.
+ * 
+ * @author alexander
+ *
+ */
+@Target(ElementType.TYPE)
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Parallel {
+}
@@ -24,4 +24,31 @@ public @interface Plugin {
 	String version();
 	
 	boolean canBeLoadedAtRuntime() default false;
+	
+	/**
+	 * Lazy plugins are only instantiated, together with their subscribers, when the first event for one of their non-static
+	 * eventHandlers is dispatched or their instance is requested, but never before their dependencies were resolved. Events
+	 * dispatched before, like the InitializationEvent, only reach their static eventHandlers. Static eventHandlers do not
+	 * activate the plugin.
+	 * 
+	 * @return true if the plugin is activated lazily
+	 */
+	boolean lazy() default false;
+	
+	/**
+	 * The plugins this plugin depends on, checked and used for the shutdown order like the dependencies added with
+	 * InitializationEvent:addDependency(String, String, String, String). Lazy plugins are not activated for the
+	 * InitializationEvent, so they declare their dependencies here (or in a static eventHandler).
+	 * 
+	 * @return entries of the form "id" or "id@lowerVersion:upperVersion", use "any" for an open end, e.g. "core@1.2.0:any"
+	 */
+	String[] dependencies() default {};
+	
+	/**
+	 * A class the configuration of this plugin is bound to when configurations are loaded, see ConfigurationBinder.
+	 * The bound object is available through ConfigurationLoadingEvent:getBoundConfiguration().
+	 * 
+	 * @return the configuration class, or Void.class if the configuration of this plugin is not bound
+	 */
+	Class<?> configuration() default Void.class;
 }
@@ -0,0 +1,31 @@
+package pluginmanager.api.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Classes annotated with this annotation are published in the service registry of the PluginManager when their plugin is loaded,
+ * see PluginManager:getServiceRegistry(). The plugin main class is published with the plugin instance, other classes are
+ * instantiated with their no-argument constructor on the first lookup. Services are withdrawn when their plugin is stopped.
+ * 
+ * @author alexander
+ *
+ */
+@Target(ElementType.TYPE)
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Service {
+	/**
+	 * @return the types the class is published as, by default the interfaces it implements directly, or the class itself if it
+	 * implements none
+	 */
+	Class<?>[] value() default {};
+	
+	/**
+	 * @return the ranking of the service, lookups prefer services with a higher ranking
+	 */
+	int ranking() default 0;
+}
@@ -11,21 +11,58 @@ import java.util.ArrayList;
  */
 public abstract class Event {
 	private final Object SENDER;
-	private final ArrayList<Method> handledBy = new ArrayList<Method>();
+	//created by the first eventHandler, most events are never asked for their handlers
+	private ArrayList<Method> handledBy;
 	
 	public Event(Object sender) {
 		this.SENDER = sender;
 	}
 	
+	/**
+	 * Used by Java serialization for Serializable events (see JavaEventSerializer), deserialized events have no sender.
+	 */
+	protected Event() {
+		this(null);
+	}
+	
 	public Object getSender() {
 		return this.SENDER;
 	}
 	
 	public void addHandler(Method handler) {
+		if(this.handledBy == null) this.handledBy = new ArrayList<Method>();
 		this.handledBy.add(handler);
 	}
 	
 	public Method[] getHandlers() {
+		if(this.handledBy == null) return new Method[0];
 		return this.handledBy.toArray(new Method[this.handledBy.size()]);
 	}
+	
+	/**
+	 * Forgets the eventHandlers of a pooled event before it is reused, the list is kept.
+	 */
+	void clearHandlers() {
+		if(this.handledBy != null) this.handledBy.clear();
+	}
+	
+	/**
+	 * Override this to route events to eventHandlers subscribed to a key (see EventHandler:key()), for example the id of the plugin
+	 * the event is meant for. Events without a key are only delivered to eventHandlers without a key.
+	 * 
+	 * @return the routing key of this event, or null if it should be delivered to all eventHandlers without a key
+	 */
+	public String getRoutingKey() {
+		return null;
+	}
+	
+	/**
+	 * Override this if the event type is coalesced (see @Coalesce) and events with different keys must not replace each other,
+	 * for example the id of the plugin a status update is about.
+	 * 
+	 * @return the key this event is coalesced under, null if all events of this type share one key. Defaults to the routing key.
+	 */
+	public Object getCoalescingKey() {
+		return this.getRoutingKey();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package pluginmanager.api.event;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A pool of reusable events of one type (see PooledEvent). The pool is split into stripes chosen by the current thread, so
+ * threads publishing concurrently rarely compete for the same slots. Taking and returning events is lock-free and allocates
+ * nothing, events which don't fit into a full stripe are left to the garbage collector.
+ * 
+ * Usage:
+ * <pre>
+ * PositionEvent event = pool.acquire();
+ * event.setPosition(x, y);
+ * try {
+ *     pluginManager.sendEvent(event);
+ * } finally {
+ *     event.release();
+ * }
+ * </pre>
+ * 
+ * @author alexander
+ *
+ */
+public class EventPool<T extends PooledEvent> {
+	
+	private final Supplier<T> factory;
+	private final AtomicReferenceArray<PooledEvent> slots;
+	private final int stripeMask;
+	private final int stripeSize;
+	
+	/**
+	 * Creates a pool with one stripe per available processor.
+	 * 
+	 * @param factory - creates new events when the pool is empty
+	 * @param stripeSize - the number of events each stripe keeps
+	 */
+	public EventPool(Supplier<T> factory, int stripeSize) {
+		this(factory, Runtime.getRuntime().availableProcessors(), stripeSize);
+	}
+	
+	/**
+	 * @param factory - creates new events when the pool is empty
+	 * @param stripes - the number of stripes, rounded up to a power of two
+	 * @param stripeSize - the number of events each stripe keeps
+	 */
+	public EventPool(Supplier<T> factory, int stripes, int stripeSize) {
+		if(stripes < 1 || stripeSize < 1) throw new IllegalArgumentException("A pool needs at least one stripe holding one event");
+		
+		int stripeCount = Integer.highestOneBit(stripes);
+		if(stripeCount < stripes) stripeCount <<= 1;
+		
+		this.factory = factory;
+		this.stripeMask = stripeCount - 1;
+		this.stripeSize = stripeSize;
+		this.slots = new AtomicReferenceArray<PooledEvent>(stripeCount * stripeSize);
+	}
+	
+	private int stripeStart() {
+		return ((int) Thread.currentThread().getId() & this.stripeMask) * this.stripeSize;
+	}
+	
+	/**
+	 * Takes an event from the stripe of the current thread, or creates one if the stripe is empty.
+	 * 
+	 * @return an event holding one reference, release() it once it was sent
+	 */
+	@SuppressWarnings("unchecked")
+	public T acquire() {
+		int start = this.stripeStart();
+		
+		for(int i = start; i < start + this.stripeSize; i++) {
+			if(this.slots.get(i) == null) continue;
+			
+			PooledEvent event = this.slots.getAndSet(i, null);
+			if(event != null) {
+				event.acquired(this);
+				return (T) event;
+			}
+		}
+		
+		T event = this.factory.get();
+		event.acquired(this);
+		return event;
+	}
+	
+	/**
+	 * Called by PooledEvent:release() once the last reference was dropped.
+	 */
+	void give(PooledEvent event) {
+		event.recycle();
+		
+		int start = this.stripeStart();
+		
+		for(int i = start; i < start + this.stripeSize; i++) {
+			if(this.slots.get(i) == null && this.slots.compareAndSet(i, null, event)) return;
+		}
+	}
+}
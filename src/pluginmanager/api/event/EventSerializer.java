@@ -0,0 +1,27 @@
+package pluginmanager.api.event;
+
+import java.io.IOException;
+
+/**
+ * Turns events into bytes and back, for events which leave the JVM (remote plugins) or are stored. Implementations need a
+ * public no-argument constructor, a remote plugin host creates its own instance by class name.
+ * 
+ * @author alexander
+ *
+ */
+public interface EventSerializer {
+	
+	/**
+	 * @param event
+	 * @return the serialized event
+	 * @throws IOException if the event cannot be serialized by this serializer
+	 */
+	public byte[] serialize(Event event) throws IOException;
+	
+	/**
+	 * @param data - bytes written by serialize()
+	 * @return the event
+	 * @throws IOException if the data is broken or the event class cannot be found
+	 */
+	public Event deserialize(byte[] data) throws IOException;
+}
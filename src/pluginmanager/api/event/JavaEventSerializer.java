@@ -0,0 +1,60 @@
+package pluginmanager.api.event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import pluginmanager.util.SerializationFilter;
+
+/**
+ * The default EventSerializer, using Java serialization. Events have to implement Serializable, the sender and the handlers
+ * of an event are not serialized.
+ * 
+ * Deserialization only creates events, classes of the JDK and classes accepted by isAllowed() (see SerializationFilter), as
+ * the data may come from a journal file or another process. Events with fields of other types need a subclass overriding
+ * isAllowed(), set with PluginManager:setEventSerializer().
+ * 
+ * @author alexander
+ *
+ */
+public class JavaEventSerializer implements EventSerializer {
+	
+	private final SerializationFilter filter = new SerializationFilter(this::isAllowed);
+	
+	@Override
+	public byte[] serialize(Event event) throws IOException {
+		if(!(event instanceof Serializable)) throw new NotSerializableException(event.getClass().getName());
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(event);
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	@Override
+	public Event deserialize(byte[] data) throws IOException {
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+			in.setObjectInputFilter(this.filter);
+			return (Event) in.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Could not deserialize the event", e);
+		}
+	}
+	
+	/**
+	 * Decides whether a class which is not part of the JDK may be deserialized.
+	 * 
+	 * @param type
+	 * @return true for events, override to allow the types of event fields
+	 */
+	protected boolean isAllowed(Class<?> type) {
+		return Event.class.isAssignableFrom(type);
+	}
+}
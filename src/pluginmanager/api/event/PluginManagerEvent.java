@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import configurationutil.type.Configuration;
 
@@ -23,6 +24,7 @@ public abstract class PluginManagerEvent extends Event {
 		
 		private List<String> dependencies = new ArrayList<String>();
 		private List<Class<? extends Event>> newEvents = new ArrayList<Class<? extends Event>>();
+		private Map<String, List<String>> dependenciesByPlugin = new HashMap<String, List<String>>();
 		
 		public InitializationEvent(Object sender) {
 			super(sender);
@@ -33,10 +35,11 @@ public abstract class PluginManagerEvent extends Event {
 		}
 		
 		/**
-		 * Use this method to set any dependencies your plugin depends on. 
+		 * Use this method to set any dependencies your plugin depends on. Dependencies added this way are checked, but the
+		 * PluginManager does not know which plugin needs them, use addDependency(String, String, String, String) to have your
+		 * plugin stopped before its dependencies on shutdown.
 		 * 
 		 * @param id - the id of the plugin you depend on
-		 * @param version - the version of the plugin you depend on
 		 * @param lowerVersion - the minimum Version of the required Plugin (pass null if any version is fine)
 		 * @param upperVersion - the maximum Version of the required plugin (pass null if any version is fine)
 		 */
@@ -45,7 +48,36 @@ public abstract class PluginManagerEvent extends Event {
 			if(lowerVersion == null) lowerVersion = "any";
 			if(upperVersion == null) upperVersion = "any";
 			
-			dependencies.add(id + "@" + lowerVersion + ":" + upperVersion);
+			synchronized(this) {
+				dependencies.add(id + "@" + lowerVersion + ":" + upperVersion);
+			}
+		}
+		
+		/**
+		 * Use this method to set any dependencies your plugin depends on. The dependency is checked like the ones added with
+		 * addDependency(String, String, String), and shutdown() stops your plugin before the plugin it depends on.
+		 * 
+		 * @param pluginId - the id of your plugin
+		 * @param id - the id of the plugin you depend on
+		 * @param lowerVersion - the minimum Version of the required Plugin (pass null if any version is fine)
+		 * @param upperVersion - the maximum Version of the required plugin (pass null if any version is fine)
+		 */
+		public void addDependency(String pluginId, String id, String lowerVersion, String upperVersion) {
+			this.addDependency(id, lowerVersion, upperVersion);
+			
+			synchronized(this) {
+				if(!this.dependenciesByPlugin.containsKey(pluginId)) this.dependenciesByPlugin.put(pluginId, new ArrayList<String>());
+				this.dependenciesByPlugin.get(pluginId).add(id);
+			}
+		}
+		
+		/**
+		 * @param pluginId
+		 * @return the ids of the plugins the plugin declared as its dependencies with addDependency(String, String, String, String)
+		 */
+		public synchronized List<String> getDependencies(String pluginId) {
+			List<String> added = this.dependenciesByPlugin.get(pluginId);
+			return added == null ? new ArrayList<String>() : new ArrayList<String>(added);
 		}
 		
 		public void addEvent(Class<? extends Event> event) {
@@ -60,6 +92,7 @@ public abstract class PluginManagerEvent extends Event {
 	public static class ConfigurationLoadingEvent extends PluginManagerEvent {
 		
 		private Map<String, Configuration> configurations = new HashMap<String, Configuration>();
+		private Map<String, Object> boundConfigurations = new HashMap<String, Object>();
 		
 		public ConfigurationLoadingEvent(Object sender) {
 			super(sender);
@@ -72,6 +105,121 @@ public abstract class PluginManagerEvent extends Event {
 		public Configuration getConfiguration(String pluginId) {
 			return this.configurations.get(pluginId);
 		}
+		
+		public void addBoundConfiguration(String pluginId, Object configuration) {
+			this.boundConfigurations.put(pluginId, configuration);
+		}
+		
+		/**
+		 * Gets the configuration of a plugin bound to the class given by Plugin:configuration(). Keep the returned object instead
+		 * of reading the raw configuration, reading its fields is as cheap as reading any other field.
+		 * 
+		 * @param pluginId
+		 * @param type - the configuration class of the plugin
+		 * @return the bound configuration or null if the plugin has no configuration or no configuration class
+		 */
+		public <T> T getBoundConfiguration(String pluginId, Class<T> type) {
+			return type.cast(this.boundConfigurations.get(pluginId));
+		}
+	}
+	
+	/**
+	 * This event gets sent by PluginManager:reloadConfigurations() when the configuration of a plugin changed on disk. It is only
+	 * delivered to the eventHandlers of the plugin owning the configuration.
+	 * 
+	 * @author alexander
+	 *
+	 */
+	public static class ConfigurationChangedEvent extends PluginManagerEvent {
+		
+		private final String pluginId;
+		private final Configuration configuration;
+		private final Object boundConfiguration;
+		private final Set<String> changedKeys;
+		
+		public ConfigurationChangedEvent(Object sender, String pluginId, Configuration configuration, Object boundConfiguration, Set<String> changedKeys) {
+			super(sender);
+			this.pluginId = pluginId;
+			this.configuration = configuration;
+			this.boundConfiguration = boundConfiguration;
+			this.changedKeys = changedKeys;
+		}
+		
+		public String getPluginId() {
+			return this.pluginId;
+		}
+		
+		/**
+		 * Routed to the owning plugin, use @EventHandler(key = EventHandler.OWN_PLUGIN) to only subscribe to changes of your own configuration.
+		 */
+		@Override
+		public String getRoutingKey() {
+			return this.pluginId;
+		}
+		
+		/**
+		 * @return the new configuration, or null if the configuration file was removed
+		 */
+		public Configuration getConfiguration() {
+			return this.configuration;
+		}
+		
+		/**
+		 * @param type - the configuration class of the plugin
+		 * @return the new configuration bound to Plugin:configuration(), or null if the plugin has no configuration class
+		 */
+		public <T> T getBoundConfiguration(Class<T> type) {
+			return type.cast(this.boundConfiguration);
+		}
+		
+		/**
+		 * The changed keys are only known for plugins with a configuration class (see Plugin:configuration()), they are named like
+		 * in ConfigurationBinder:diff(). If the plugin had no configuration before or its configuration was removed, all keys of
+		 * the class count as changed. Plugins without a configuration class get an empty set and have to read getConfiguration().
+		 * 
+		 * @return the keys whose values changed, never null
+		 */
+		public Set<String> getChangedKeys() {
+			return this.changedKeys;
+		}
+	}
+	
+	/**
+	 * This event gets sent by PluginManager:shutdown() to each plugin right before it is stopped. Plugins are stopped after all
+	 * plugins depending on them, so a plugin may still use its dependencies while handling this event. Its routing key is the
+	 * id of the plugin being stopped. EventHandlers of a plugin without a key only receive the ShutdownEvent of their own plugin,
+	 * to watch the shutdown of another plugin use @EventHandler(key = "[id of the other plugin]"). Plugins which were stopped
+	 * already receive no further ShutdownEvents.
+	 * 
+	 * @author alexander
+	 *
+	 */
+	public static class ShutdownEvent extends PluginManagerEvent {
+		
+		private final String pluginId;
+		private final long deadline;
+		
+		public ShutdownEvent(Object sender, String pluginId, long deadline) {
+			super(sender);
+			this.pluginId = pluginId;
+			this.deadline = deadline;
+		}
+		
+		public String getPluginId() {
+			return this.pluginId;
+		}
+		
+		@Override
+		public String getRoutingKey() {
+			return this.pluginId;
+		}
+		
+		/**
+		 * @return the System:nanoTime() by which the shutdown has to be done, release resources quickly if it is near
+		 */
+		public long getDeadline() {
+			return this.deadline;
+		}
 	}
 	
 	public static class DependencyRegisteringEvent extends PluginManagerEvent {
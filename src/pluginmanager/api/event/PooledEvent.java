@@ -0,0 +1,83 @@
+package pluginmanager.api.event;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Extend this instead of Event for event types which are sent at high rates, their instances can then be taken from an EventPool
+ * and reused once every holder released them, so publishing them allocates nothing.
+ * 
+ * Instances are reference counted: acquiring one from the pool holds one reference, the PluginManager holds another one while it
+ * keeps the event for later (e.g. while it is coalesced). Call release() once you sent the event, eventHandlers which keep the
+ * event beyond their invocation have to retain() it and release it later. A released event must not be used any more.
+ * 
+ * @author alexander
+ *
+ */
+public abstract class PooledEvent extends Event {
+	
+	private static final AtomicIntegerFieldUpdater<PooledEvent> REFERENCES = AtomicIntegerFieldUpdater.newUpdater(PooledEvent.class, "references");
+	
+	private volatile int references = 1;
+	private EventPool<?> pool;
+	
+	public PooledEvent(Object sender) {
+		super(sender);
+	}
+	
+	/**
+	 * Used by Java serialization, see Event.
+	 */
+	protected PooledEvent() {
+		super();
+	}
+	
+	/**
+	 * Resets all fields of the event to the state of a new instance, called before the event returns to its pool.
+	 */
+	protected abstract void reset();
+	
+	/**
+	 * Adds a reference, the event is not reused before it was released once more.
+	 * 
+	 * @throws IllegalStateException if the event was released already
+	 */
+	public void retain() {
+		while(true) {
+			int current = this.references;
+			if(current <= 0) throw new IllegalStateException("The event " + this.toString() + " was released already");
+			if(REFERENCES.compareAndSet(this, current, current + 1)) return;
+		}
+	}
+	
+	/**
+	 * Drops a reference, the last one returns the event to its pool.
+	 * 
+	 * @throws IllegalStateException if the event was released already
+	 */
+	public void release() {
+		int remaining = REFERENCES.decrementAndGet(this);
+		
+		if(remaining < 0) {
+			REFERENCES.incrementAndGet(this);
+			throw new IllegalStateException("The event " + this.toString() + " was released already");
+		}
+		
+		if(remaining == 0 && this.pool != null) this.pool.give(this);
+	}
+	
+	/**
+	 * Called by the pool when the event is handed out.
+	 */
+	void acquired(EventPool<?> pool) {
+		this.pool = pool;
+		this.references = 1;
+	}
+	
+	/**
+	 * Called by the pool when the event returns to it.
+	 */
+	void recycle() {
+		this.reset();
+		this.clearHandlers();
+	}
+}
@@ -0,0 +1,24 @@
+package pluginmanager.api.exceptions;
+
+/**
+ * Thrown if a plugin running in its own JVM could not be reached, or in place of an exception of a remote plugin which could not
+ * be transferred, e.g. because its class only exists in the plugin jar. The stack trace is the one of the original exception.
+ * 
+ * @author alexander
+ *
+ */
+public class RemotePluginException extends Exception {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -4390842176391847720L;
+
+	public RemotePluginException(String reason) {
+		super(reason);
+	}
+	
+	public RemotePluginException(String reason, Throwable cause) {
+		super(reason, cause);
+	}
+}
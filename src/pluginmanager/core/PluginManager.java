@@ -3,28 +3,61 @@ package pluginmanager.core;
 import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.net.MalformedURLException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import configurationutil.type.Configuration;
-import pluginmanager.api.annotations.EventHandler;
-import pluginmanager.api.annotations.EventHandlerSubscriber;
+import pluginmanager.api.annotations.Parallel;
 import pluginmanager.api.annotations.Plugin;
+import pluginmanager.api.annotations.Service;
 import pluginmanager.api.event.Event;
+import pluginmanager.api.event.EventSerializer;
+import pluginmanager.api.event.JavaEventSerializer;
 import pluginmanager.api.event.PluginManagerEvent;
 import pluginmanager.api.exceptions.DependencyMissingException;
 import pluginmanager.api.exceptions.MalformedPluginException;
 import pluginmanager.api.exceptions.StoredException;
+import pluginmanager.core.annotations.AnnotationIndex;
+import pluginmanager.core.annotations.IndexedElement;
+import pluginmanager.core.events.DispatcherGenerator;
+import pluginmanager.core.events.EventCoalescer;
+import pluginmanager.core.events.HandlerIndex;
+import pluginmanager.core.events.HandlerRegistry;
+import pluginmanager.core.events.RegisteredHandler;
+import pluginmanager.core.services.ServiceRegistry;
+import pluginmanager.journal.EventJournal;
+import pluginmanager.loading.ConfigurationBinder;
+import pluginmanager.loading.ConfigurationCache;
 import pluginmanager.loading.ConfigurationDiscoverer;
-import pluginmanager.loading.JarLoader;
+import pluginmanager.loading.JarCache;
+import pluginmanager.loading.JarMetadata;
+import pluginmanager.loading.PluginValidator;
+import pluginmanager.remote.RemotePlugin;
 import pluginmanager.util.ConsoleHandler;
+import pluginmanager.util.FileHasher;
+import pluginmanager.util.RecordedEvents;
 
 /**
  * 
@@ -37,10 +70,35 @@ import pluginmanager.util.ConsoleHandler;
 public class PluginManager {
 	
 	private final List<PluginWrapper> PLUGINS = new ArrayList<PluginWrapper>();
-	private final List<Class<Annotation>> CUSTOM_ANNOTATIONS = new ArrayList<Class<Annotation>>();
-	private final List<Class<? extends Event>> EVENTS = new ArrayList<Class<? extends Event>>();
-	private final Map<Class<? extends Event>, ArrayList<Method>> EVENTLISTENERS = new HashMap<Class<? extends Event>, ArrayList<Method>>();
+	private final List<Class<? extends Annotation>> CUSTOM_ANNOTATIONS = new ArrayList<Class<? extends Annotation>>();
+	private final AnnotationIndex ANNOTATIONS = new AnnotationIndex();
+	private final ServiceRegistry SERVICES = new ServiceRegistry();
+	private final HandlerRegistry EVENTLISTENERS = new HandlerRegistry();
 	private final List<File> pluginFiles = new ArrayList<File>();
+	private final List<File> remotePluginFiles = new ArrayList<File>();
+	private final List<RemotePlugin> REMOTE_PLUGINS = new ArrayList<RemotePlugin>();
+	private EventSerializer eventSerializer = new JavaEventSerializer();
+	private Duration remoteStartTimeout = Duration.ofSeconds(30);
+	private final EventCoalescer COALESCER = new EventCoalescer(this::sendCoalescedEvent);
+	
+	//state of the last configuration load, used by reloadConfigurations() to find out what changed
+	private final Map<File, String> configurationHashes = new HashMap<File, String>();
+	private final Map<File, String> configurationOwners = new HashMap<File, String>();
+	private final Map<String, Object> boundConfigurations = new HashMap<String, Object>();
+	private boolean configurationCaching = false;
+	private volatile boolean generatedDispatch = false;
+	private final Map<Class<?>, Boolean> parallelTypes = new ConcurrentHashMap<Class<?>, Boolean>();
+	
+	//the ids of the plugins each plugin depends on, plugins are stopped after all plugins depending on them
+	private final Map<String, Set<String>> DEPENDENCIES = new HashMap<String, Set<String>>();
+	private final List<JarMetadata> loadedJars = new ArrayList<JarMetadata>();
+	private volatile boolean shuttingDown = false;
+	private volatile boolean shutDown = false;
+	private CompletableFuture<Boolean> shutdownResult;
+	private volatile EventJournal journal;
+	private boolean pluginValidation = true;
+	private boolean jarSharing = false;
+	private volatile Consumer<StoredException> coalescingExceptionHandler;
 	
 	
 	/**
@@ -49,9 +107,12 @@ public class PluginManager {
 	 * you need to call refreshEvents();
 	 * 
 	 * @param param
+	 * @throws IllegalArgumentException if the event is annotated with @Coalesce but has no positive window
 	 */
 	public void injectEvent(Class<? extends Event> param) {
-		this.EVENTS.add(param);
+		//reads the @Coalesce annotation now, so a broken one fails here instead of on the first send
+		this.COALESCER.isCoalesced(param);
+		this.EVENTLISTENERS.register(param);
 	}
 	
 	/**
@@ -59,6 +120,13 @@ public class PluginManager {
 	 * 
 	 */
 	public void refreshEvents() {
+		RecordedEvents.RefreshEvents recorded = new RecordedEvents.RefreshEvents();
+		recorded.begin();
+		
+		//collect the new eventHandlers first, so each handler table is only replaced once
+		HashMap<Class<?>, ArrayList<RegisteredHandler>> added = new HashMap<Class<?>, ArrayList<RegisteredHandler>>();
+		List<Class<? extends Event>> types = this.EVENTLISTENERS.getTypes();
+		
 		for(PluginWrapper plugin : this.PLUGINS) {
 			
 			try {
@@ -69,35 +137,209 @@ public class PluginManager {
 			}
 				
 			for(Class<?> eventReceiver : plugin.getEventHandlers()) {
-				for(Method method : eventReceiver.getMethods()) {
-					if (method.isAnnotationPresent(EventHandler.class)) {
-						ConsoleHandler.println("Checking method " + method.toString());
-						Parameter param = method.getParameters()[0];
-						for(Class<?> event : this.EVENTS) {
-							if(param.getType().isAssignableFrom(event)) {
-								this.EVENTLISTENERS.get(param.getType()).add(method);
-								ConsoleHandler.println("Adding method " + method.toString() + " to EventListener type " + this.EVENTLISTENERS.get(param.getType()).toString() + " which now contains " + this.EVENTLISTENERS.get(param.getType()).size() + " eventHandlers");
+				for(Method method : plugin.getHandlerMethods(eventReceiver)) {
+					ConsoleHandler.println("Checking method " + method.toString());
+					//PluginValidator rejects these, but validation may be disabled
+					if(method.getParameterCount() != 1) {
+						ConsoleHandler.println("Skipping eventHandler " + method.toString() + ", it does not take exactly one parameter");
+						continue;
+					}
+					Parameter param = method.getParameters()[0];
+					for(Class<?> event : types) {
+						if(param.getType().isAssignableFrom(event)) {
+							if(!this.EVENTLISTENERS.isRegistered(param.getType()) || this.EVENTLISTENERS.contains(param.getType(), method)) continue;
+							if(!added.containsKey(param.getType())) added.put(param.getType(), new ArrayList<RegisteredHandler>());
+							ArrayList<RegisteredHandler> handlers = added.get(param.getType());
+							if(isRegistered(handlers, method)) continue;
+							try {
+								handlers.add(plugin.createHandler(method, eventReceiver));
+							} catch (IllegalAccessException | IllegalArgumentException e) {
+								ConsoleHandler.println("Could not register eventHandler " + method.toString() + ": " + e.getMessage());
+								continue;
 							}
+							ConsoleHandler.println("Adding method " + method.toString() + " to EventListener type " + param.getType().getName() + " which now contains " + (this.EVENTLISTENERS.getHandlers(param.getType()).size() + handlers.size()) + " eventHandlers");
 						}
 					}
 				}
 			}
 		}
+		
+		this.addRemoteHandlers(types, added);
+		
+		for(Map.Entry<Class<?>, ArrayList<RegisteredHandler>> entry : added.entrySet()) {
+			this.EVENTLISTENERS.add(entry.getKey(), entry.getValue());
+		}
+		
+		for(Class<? extends Event> eventType : this.EVENTLISTENERS.getTypes()) {
+			this.indexHandlers(eventType);
+		}
+		
+		recorded.end();
+		if(recorded.shouldCommit()) {
+			recorded.eventTypes = this.EVENTLISTENERS.getTypes().size();
+			recorded.handlers = this.EVENTLISTENERS.size();
+			recorded.commit();
+		}
+	}
+	
+	/**
+	 * Registers the forwarding eventHandler of each remote plugin (see RemotePlugin:forward()) for the event types it handles.
+	 */
+	private void addRemoteHandlers(List<Class<? extends Event>> types, Map<Class<?>, ArrayList<RegisteredHandler>> added) {
+		for(RemotePlugin remote : this.REMOTE_PLUGINS) {
+			for(Class<? extends Event> type : types) {
+				//the host sends these to the plugin itself
+				if(type == PluginManagerEvent.InitializationEvent.class || type == PluginManagerEvent.ShutdownEvent.class) continue;
+				if(!remote.getHandledEventTypes().contains(type.getName()) || this.EVENTLISTENERS.hasHandlers(type, remote.getID())) continue;
+				
+				if(!added.containsKey(type)) added.put(type, new ArrayList<RegisteredHandler>());
+				try {
+					added.get(type).add(new RegisteredHandler(RemotePlugin.getForwardingMethod(), remote, remote.getID()));
+				} catch (IllegalAccessException | IllegalArgumentException e) {
+					ConsoleHandler.println("Could not register remote plugin " + remote.getID() + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Generates a dispatcher class per event type and routing key which calls all eventHandlers directly, so the JIT can inline
+	 * the whole fan-out (see DispatcherGenerator). Generating takes time on every change of the eventHandlers, so this pays off
+	 * for a fixed set of plugins receiving many events. Disabled by default.
+	 * 
+	 * @param generate
+	 */
+	public void setGeneratedDispatch(boolean generate) {
+		this.generatedDispatch = generate;
+		
+		this.EVENTLISTENERS.reindex(generate);
+	}
+	
+	/**
+	 * Rebuilds the routing index of the event type, call this whenever its list of eventHandlers changed.
+	 * 
+	 * @param eventType
+	 */
+	private void indexHandlers(Class<? extends Event> eventType) {
+		this.EVENTLISTENERS.index(eventType, this.generatedDispatch, this.isParallel(eventType));
+	}
+	
+	private boolean isParallel(Class<? extends Event> eventType) {
+		Boolean parallel = this.parallelTypes.get(eventType);
+		return parallel == null ? eventType.isAnnotationPresent(Parallel.class) : parallel;
+	}
+	
+	/**
+	 * Calls the eventHandlers of the event type in parallel, or stops doing so, regardless of whether the type is annotated with
+	 * @Parallel. See @Parallel for how the handlers are called.
+	 * 
+	 * @param eventType
+	 * @param parallel
+	 */
+	public void setParallelDispatch(Class<? extends Event> eventType, boolean parallel) {
+		this.parallelTypes.put(eventType, parallel);
+		
+		if(this.EVENTLISTENERS.getIndex(eventType) != null) this.indexHandlers(eventType);
+	}
+	
+	private static boolean isRegistered(List<RegisteredHandler> handlers, Method method) {
+		for(RegisteredHandler handler : handlers) {
+			if(handler.getMethod().equals(method)) return true;
+		}
+		
+		return false;
 	}
 	
 	/**
-	 * Adds custom annotations to look out for when loading a plugin.
+	 * Adds custom annotations to look out for when loading a plugin. Classes, methods and fields carrying them are found in
+	 * getAnnotationIndex(), the annotation needs to be retained at runtime.
 	 * 
 	 * @param clazz
 	 */
-	public void addCustomAnnotationToCheckFor(Class<Annotation> clazz) {
+	public void addCustomAnnotationToCheckFor(Class<? extends Annotation> clazz) {
 		this.CUSTOM_ANNOTATIONS.add(clazz);
 	}
 	
+	/**
+	 * @return the classes, methods and fields of all loaded plugins carrying one of the custom annotations
+	 */
+	public AnnotationIndex getAnnotationIndex() {
+		return this.ANNOTATIONS;
+	}
+	
 	public void addPluginToLoad(File file) {
 		pluginFiles.add(file);
 	}
 	
+	/**
+	 * Loads the plugin jar in a JVM of its own (see RemotePlugin) when initialize() is called. Events of the types the plugin
+	 * handles are serialized with the EventSerializer of this PluginManager and forwarded to it, the exceptions of its
+	 * eventHandlers are sent back. Remote plugins may only depend on the plugin manager itself and do not receive the
+	 * InitializationEvent of this PluginManager, they receive one from the PluginManager in their own JVM.
+	 * 
+	 * @param file
+	 */
+	public void addRemotePluginToLoad(File file) {
+		this.remotePluginFiles.add(file);
+	}
+	
+	/**
+	 * Sets the serializer for events sent to remote plugins, it has to be on the classpath of the remote plugin hosts. Events
+	 * implementing Serializable are supported by default (see JavaEventSerializer).
+	 * 
+	 * @param serializer
+	 */
+	public void setEventSerializer(EventSerializer serializer) {
+		this.eventSerializer = serializer;
+	}
+	
+	/**
+	 * @param timeout - the time a remote plugin host may take to start and initialize its plugin, 30 seconds by default
+	 */
+	public void setRemoteStartTimeout(Duration timeout) {
+		this.remoteStartTimeout = timeout;
+	}
+	
+	/**
+	 * Gets the event types the plugin has eventHandlers for.
+	 * 
+	 * @param pluginId
+	 * @return the event types in the order they were injected
+	 */
+	public List<Class<? extends Event>> getHandledEventTypes(String pluginId) {
+		ArrayList<Class<? extends Event>> handled = new ArrayList<Class<? extends Event>>();
+		
+		for(Class<? extends Event> type : this.EVENTLISTENERS.getTypes()) {
+			if(this.EVENTLISTENERS.hasHandlers(type, pluginId)) handled.add(type);
+		}
+		
+		return handled;
+	}
+	
+	/**
+	 * Gets the @Plugin annotations of all loaded plugins, without loading their jars again.
+	 * 
+	 * @return the annotations in the order the plugins were loaded, the plugin manager itself is not included
+	 */
+	public List<Plugin> getLoadedPlugins() {
+		ArrayList<Plugin> loaded = new ArrayList<Plugin>();
+		
+		for(PluginWrapper wrapper : this.PLUGINS) {
+			Plugin plugin = wrapper == null ? null : wrapper.getMainClass().getAnnotation(Plugin.class);
+			if(plugin != null) loaded.add(plugin);
+		}
+		
+		return loaded;
+	}
+	
+	private PluginWrapper getPlugin(String id) {
+		for(PluginWrapper wrapper : this.PLUGINS) {
+			if(wrapper != null && wrapper.getID().equals(id)) return wrapper;
+		}
+		
+		return null;
+	}
+	
 	public boolean isPluginLoaded(String id) {
 		boolean is = false;
 		
@@ -169,6 +411,17 @@ public class PluginManager {
 		return is;
 	}
 	
+	/**
+	 * Enables or disables the binary configuration cache (see ConfigurationCache) loadConfigurations() keeps in the configuration
+	 * directory. It is disabled by default, only enable it if the configuration directory is not writable by anyone the
+	 * application does not trust, as the cache is read with Java serialization (restricted to configuration classes).
+	 * 
+	 * @param caching
+	 */
+	public void setConfigurationCaching(boolean caching) {
+		this.configurationCaching = caching;
+	}
+	
 	/**
 	 * Loads configurations from disk and relays them to the plugins.
 	 * 
@@ -190,18 +443,40 @@ public class PluginManager {
 		}
 		
 		Configuration[] configs = null;
+		String[] hashes = null;
+		ConfigurationCache cache = this.configurationCaching ? new ConfigurationCache(new File(directory, ConfigurationCache.DEFAULT_NAME)) : null;
 		
 		try {
-			configs = ConfigurationDiscoverer.parseConfigurations(files);
+			if(cache != null) {
+				configs = ConfigurationDiscoverer.parseConfigurations(files, cache);
+				try {
+					cache.save(files);
+				} catch (IOException e) {
+					//the configurations were loaded, the next start just has to parse them again
+					ConsoleHandler.println("Could not write the configuration cache: " + e.getMessage());
+				}
+			} else {
+				//hash before parsing, so reloadConfigurations() sees an edit made in between as a change
+				hashes = new String[files.length];
+				for(int i = 0; i < files.length; i++) {
+					hashes[i] = FileHasher.sha256(files[i]);
+				}
+				configs = ConfigurationDiscoverer.parseConfigurations(files);
+			}
 		} catch (IOException e) {
 			ex.addException(e);
 		}
 		
 		PluginManagerEvent.ConfigurationLoadingEvent confLoadEvent = new PluginManagerEvent.ConfigurationLoadingEvent(this);
 		
-		for(Configuration config : configs) {
+		for(int i = 0; i < configs.length; i++) {
 			try {
-				confLoadEvent.addConfiguration(config.getSubConfiguration("pluginid").getValue(), config);
+				String pluginId = configs[i].getSubConfiguration("pluginid").getValue();
+				confLoadEvent.addConfiguration(pluginId, configs[i]);
+				
+				File file = files[i].getAbsoluteFile();
+				this.configurationHashes.put(file, cache != null ? cache.getHash(file) : hashes[i]);
+				this.configurationOwners.put(file, pluginId);
 			} catch (Exception e) {
 				ex.addException(e);
 			}
@@ -215,69 +490,340 @@ public class PluginManager {
 			}
 		}
 		
+		for(PluginWrapper plugin : this.PLUGINS) {
+			if(plugin == null) continue;
+			
+			Class<?> configurationClass = plugin.getMainClass().getAnnotation(Plugin.class).configuration();
+			Configuration configuration = confLoadEvent.getConfiguration(plugin.getID());
+			
+			if(configurationClass == Void.class || configuration == null) continue;
+			
+			try {
+				Object bound = ConfigurationBinder.bind(configuration, configurationClass);
+				confLoadEvent.addBoundConfiguration(plugin.getID(), bound);
+				this.boundConfigurations.put(plugin.getID(), bound);
+			} catch (IllegalArgumentException e) {
+				ex.addException(e);
+			}
+		}
+		
 		if(ex.recordedExceptions().length != 0) throw ex;
 		
 		this.sendEvent(confLoadEvent);
 	}
 	
+	/**
+	 * Reloads the configurations in the directory which changed since they were last loaded. Only changed files are parsed,
+	 * and each plugin whose configuration changed receives a ConfigurationChangedEvent holding the changed keys.
+	 * 
+	 * @param directory - the configuration folder directory
+	 * @param includeSubdirectories - include subdirectories when searching directory
+	 * 
+	 * @throws StoredException
+	 */
+	public void reloadConfigurations(File directory, boolean includeSubdirectories) throws StoredException {
+		StoredException ex = new StoredException();
+		
+		File[] files = null;
+		
+		try {
+			files = ConfigurationDiscoverer.getConfigurations(directory, includeSubdirectories);
+		} catch (IllegalArgumentException | MalformedURLException e) {
+			ex.addException(e);
+			throw ex;
+		}
+		
+		ArrayList<PluginManagerEvent.ConfigurationChangedEvent> changes = new ArrayList<PluginManagerEvent.ConfigurationChangedEvent>();
+		ArrayList<File> found = new ArrayList<File>();
+		
+		for(File file : files) {
+			file = file.getAbsoluteFile();
+			found.add(file);
+			
+			try {
+				String hash = FileHasher.sha256(file);
+				if(hash.equals(this.configurationHashes.get(file))) continue;
+				
+				ConsoleHandler.println("Configuration file " + file.toString() + " changed, reloading it");
+				
+				Configuration config = ConfigurationDiscoverer.parseConfigurations(new File[] {file})[0];
+				String pluginId = config.getSubConfiguration("pluginid").getValue();
+				
+				this.configurationHashes.put(file, hash);
+				String previousOwner = this.configurationOwners.put(file, pluginId);
+				
+				//the file was handed to another plugin, for the previous one it is gone
+				if(previousOwner != null && !previousOwner.equals(pluginId)) {
+					ConsoleHandler.println("Configuration file " + file.toString() + " moved from plugin " + previousOwner + " to " + pluginId);
+					changes.add(this.removeConfiguration(previousOwner));
+				}
+				
+				PluginManagerEvent.ConfigurationChangedEvent change = this.updateConfiguration(pluginId, config);
+				if(change != null) changes.add(change);
+			} catch (Exception e) {
+				ex.addException(e);
+			}
+		}
+		
+		//configuration files which were removed from the directory, files in subdirectories are only searched for if requested
+		File root = directory.getAbsoluteFile();
+		for(File file : new ArrayList<File>(this.configurationHashes.keySet())) {
+			if(found.contains(file)) continue;
+			if(includeSubdirectories ? !file.toPath().startsWith(root.toPath()) : !root.equals(file.getParentFile())) continue;
+			
+			ConsoleHandler.println("Configuration file " + file.toString() + " was removed");
+			
+			this.configurationHashes.remove(file);
+			changes.add(this.removeConfiguration(this.configurationOwners.remove(file)));
+		}
+		
+		for(PluginManagerEvent.ConfigurationChangedEvent change : changes) {
+			try {
+				this.sendEventToPlugin(change, change.getPluginId());
+			} catch (StoredException e) {
+				for(Exception recorded : e.recordedExceptions()) {
+					ex.addException(recorded);
+				}
+			}
+		}
+		
+		if(ex.recordedExceptions().length != 0) throw ex;
+	}
+	
+	/**
+	 * Binds the new configuration of a plugin and compares it to the previous one.
+	 * 
+	 * @param pluginId
+	 * @param config
+	 * @return the event to send to the plugin, or null if none of the bound values changed
+	 */
+	private PluginManagerEvent.ConfigurationChangedEvent updateConfiguration(String pluginId, Configuration config) {
+		Class<?> configurationClass = this.getConfigurationClass(pluginId);
+		
+		if(configurationClass == Void.class) {
+			return new PluginManagerEvent.ConfigurationChangedEvent(this, pluginId, config, null, Collections.<String>emptySet());
+		}
+		
+		Object bound = ConfigurationBinder.bind(config, configurationClass);
+		Object previous = this.boundConfigurations.put(pluginId, bound);
+		
+		if(previous == null) {
+			return new PluginManagerEvent.ConfigurationChangedEvent(this, pluginId, config, bound, Collections.unmodifiableSet(ConfigurationBinder.keys(configurationClass)));
+		}
+		
+		Set<String> changedKeys = ConfigurationBinder.diff(previous, bound);
+		
+		if(changedKeys.isEmpty()) return null;
+		
+		return new PluginManagerEvent.ConfigurationChangedEvent(this, pluginId, config, bound, Collections.unmodifiableSet(changedKeys));
+	}
+	
+	/**
+	 * Forgets the configuration of a plugin whose configuration file was removed or now belongs to another plugin.
+	 * 
+	 * @param pluginId
+	 * @return the event to send to the plugin
+	 */
+	private PluginManagerEvent.ConfigurationChangedEvent removeConfiguration(String pluginId) {
+		Object previous = this.boundConfigurations.remove(pluginId);
+		Set<String> changedKeys = previous == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(ConfigurationBinder.keys(previous.getClass()));
+		
+		return new PluginManagerEvent.ConfigurationChangedEvent(this, pluginId, null, null, changedKeys);
+	}
+	
+	private Class<?> getConfigurationClass(String pluginId) {
+		PluginWrapper plugin = this.getPlugin(pluginId);
+		return plugin == null ? Void.class : plugin.getMainClass().getAnnotation(Plugin.class).configuration();
+	}
+	
+	/**
+	 * Adds a static method to the event bus.
+	 * 
+	 * @param eventType
+	 * @param method
+	 * @throws StoredException if the method is not static or cannot be accessed
+	 */
 	public void addMethodToEventBus(Class<? extends Event> eventType, Method method) throws StoredException {
-		this.EVENTLISTENERS.get(eventType).add(method);
+		this.addMethodToEventBus(eventType, method, null);
+	}
+	
+	/**
+	 * Adds a method to the event bus which is called on the given instance.
+	 * 
+	 * @param eventType
+	 * @param method
+	 * @param instance - the object the method is called on, or null if the method is static
+	 * @throws StoredException if the method is not static and no instance was given or the method cannot be accessed
+	 */
+	public void addMethodToEventBus(Class<? extends Event> eventType, Method method, Object instance) throws StoredException {
+		try {
+			this.EVENTLISTENERS.add(eventType, Collections.singletonList(new RegisteredHandler(method, instance)));
+			this.indexHandlers(eventType);
+		} catch (IllegalAccessException | IllegalArgumentException e) {
+			StoredException ex = new StoredException();
+			ex.addException(e);
+			throw ex;
+		}
 	}
 	
 	public void loadPluginAtRuntime(File path) throws StoredException {
 		StoredException exceptions = new StoredException();
 		
-		Class<?>[] classes = null;
+		if(!this.isValidPlugin(path, exceptions)) throw exceptions;
+		
+		JarMetadata metadata = null;
 		try {
-			classes = JarLoader.loadJar(path);
+			metadata = this.loadJar(path);
 		} catch (ClassNotFoundException | IOException e) {
 			exceptions.addException(e);
+			throw exceptions;
 		}
-		ArrayList<Class<?>> eventHandlerSubscribers = new ArrayList<Class<?>>();
-		HashMap<String, ArrayList<Class<?>>> customAnnotatedClasses = new HashMap<String, ArrayList<Class<?>>>();
+		this.loadedJars.add(metadata);
+		ArrayList<Class<?>> eventHandlerSubscribers = new ArrayList<Class<?>>(Arrays.asList(metadata.getSubscribers()));
+		HashMap<String, ArrayList<Class<?>>> customAnnotatedClasses = this.findCustomAnnotatedClasses(metadata, null);
 		Class<?> pluginMain = null;
 		
-		//prepare a holder for each custom annotation
-		for(Class<Annotation> customAnnotation : this.CUSTOM_ANNOTATIONS) {
-			customAnnotatedClasses.put(customAnnotation.getName(), new ArrayList<Class<?>>());
+		Class<?>[] pluginClasses = metadata.getPluginClasses();
+		
+		if(pluginClasses.length > 1) {
+			exceptions.addException(new MalformedPluginException("Multiple plugins detected in jar file " + path.toString()));
+		}
+		
+		if(pluginClasses.length != 0) {
+			ConsoleHandler.println("Plugin main class: " + pluginClasses[0].getName());
+			if(!pluginClasses[0].getAnnotation(Plugin.class).canBeLoadedAtRuntime()) {
+				exceptions.addException(new MalformedPluginException("This plugin may not be loaded at runtime!"));
+			}
+			pluginMain = pluginClasses[0];
 		}
 		
-		for(Class<?> clazz : classes) {				
-			ConsoleHandler.println("Inspecting " + clazz.getName() + " for annotations, " + clazz.getAnnotations().length + " annotations present");
+		if(exceptions.recordedExceptions().length != 0) throw exceptions;
+		
+	}
+	
+	/**
+	 * Validates the jar before its classes are loaded (see PluginValidator), unless validation was disabled.
+	 * 
+	 * @param jar
+	 * @param exceptions - receives a MalformedPluginException for every problem found
+	 * @return true if the jar may be loaded
+	 */
+	private boolean isValidPlugin(File jar, StoredException exceptions) {
+		if(!this.pluginValidation) return true;
+		
+		try {
+			List<String> problems = PluginValidator.validate(jar);
 			
-			Annotation[] annotations = clazz.getAnnotations();
+			for(String problem : problems) {
+				exceptions.addException(new MalformedPluginException("Invalid plugin " + jar.toString() + ": " + problem));
+			}
 			
-			for(Annotation annotation : annotations) {
-				
-									
-				if(annotation.annotationType().isAssignableFrom(Plugin.class)) {
-					ConsoleHandler.println("This class is a Plugin main class.");
-					if(pluginMain != null ) {
-						exceptions.addException(new MalformedPluginException("Multiple plugins detected in jar file " + path.toString()));
-					} else {
-						if(!((Plugin) annotation).canBeLoadedAtRuntime()) {
-							exceptions.addException(new MalformedPluginException("This plugin may not be loaded at runtime!"));
-						}
-						pluginMain = clazz;
-					}
-				}
-				
-				if(annotation.annotationType().isAssignableFrom(EventHandlerSubscriber.class)) {
-					ConsoleHandler.println("This class is an EventHandlerSubscriber");
-					eventHandlerSubscribers.add(clazz);
+			return problems.isEmpty();
+		} catch (IOException e) {
+			exceptions.addException(e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Lets this PluginManager use plugin jars already loaded by other PluginManagers with jar sharing enabled (see JarCache), so
+	 * each jar is only loaded once per JVM. Shared plugins share their classes: static fields are seen by every PluginManager
+	 * and static initializers run only once, so only enable this if the PluginManagers may see each others plugin state.
+	 * Disabled by default, every PluginManager then loads its plugins through class loaders of its own. Only affects jars
+	 * loaded afterwards.
+	 * 
+	 * @param sharing
+	 */
+	public void setJarSharing(boolean sharing) {
+		this.jarSharing = sharing;
+	}
+	
+	private JarMetadata loadJar(File jar) throws ClassNotFoundException, IOException {
+		return this.jarSharing ? JarCache.getMetadata(jar) : JarCache.loadIsolated(jar);
+	}
+	
+	/**
+	 * Enables or disables checking plugin jars before they are loaded (see PluginValidator). Enabled by default.
+	 * 
+	 * @param validation
+	 */
+	public void setPluginValidation(boolean validation) {
+		this.pluginValidation = validation;
+	}
+	
+	/**
+	 * Publishes the classes of the jar annotated with @Service. The plugin main class is published with the plugin instance,
+	 * so looking it up activates a lazy plugin.
+	 * 
+	 * @param metadata
+	 * @param plugin
+	 * @param exceptions - receives a MalformedPluginException for every class not implementing the types it is published as
+	 */
+	private void publishServices(JarMetadata metadata, PluginWrapper plugin, StoredException exceptions) {
+		for(Class<?> clazz : metadata.getClasses()) {
+			Service service = clazz.getAnnotation(Service.class);
+			if(service == null) continue;
+			
+			Class<?>[] types = service.value();
+			if(types.length == 0) types = clazz.getInterfaces();
+			if(types.length == 0) types = new Class<?>[] {clazz};
+			
+			for(Class<?> type : types) {
+				if(!type.isAssignableFrom(clazz)) {
+					exceptions.addException(new MalformedPluginException("The service " + clazz.getName() + " of plugin " + plugin.getID() + " does not implement " + type.getName()));
+					continue;
 				}
 				
-				for(Class<Annotation> customAnnotation : this.CUSTOM_ANNOTATIONS) {
-					if(annotation.annotationType().isAssignableFrom(customAnnotation)) {
-						ConsoleHandler.println("This class has a custom annotation: " + annotation.annotationType().toString());
-						customAnnotatedClasses.get(annotation.annotationType().toString()).add(clazz);
-					}
-				}
+				ConsoleHandler.println("Publishing service " + type.getName() + " of plugin " + plugin.getID());
+				this.publishService(type, clazz, plugin, service.ranking());
 			}
 		}
+	}
+	
+	private <T> void publishService(Class<T> type, Class<?> clazz, PluginWrapper plugin, int ranking) {
+		if(clazz == plugin.getMainClass()) {
+			this.SERVICES.registerFactory(type, () -> type.cast(plugin.getInstance()), plugin.getID(), ranking);
+		} else {
+			this.SERVICES.registerFactory(type, () -> type.cast(clazz.getConstructor().newInstance()), plugin.getID(), ranking);
+		}
+	}
+	
+	/**
+	 * @return the services published by the plugins and the application
+	 */
+	public ServiceRegistry getServiceRegistry() {
+		return this.SERVICES;
+	}
+	
+	/**
+	 * Sorts the classes of the jar by the custom annotations registered with this PluginManager.
+	 * 
+	 * @param metadata
+	 * @param pluginId - the plugin the jar belongs to, its annotated classes, methods and fields are added to the annotation index.
+	 * Pass null to only look at the classes.
+	 * @return a map from annotation name to the classes annotated with it
+	 */
+	private HashMap<String, ArrayList<Class<?>>> findCustomAnnotatedClasses(JarMetadata metadata, String pluginId) {
+		HashMap<String, ArrayList<Class<?>>> customAnnotatedClasses = new HashMap<String, ArrayList<Class<?>>>();
 		
-		if(exceptions.recordedExceptions().length != 0) throw exceptions;
+		//prepare a holder for each custom annotation
+		for(Class<? extends Annotation> customAnnotation : this.CUSTOM_ANNOTATIONS) {
+			customAnnotatedClasses.put(customAnnotation.getName(), new ArrayList<Class<?>>());
+		}
+		
+		if(this.CUSTOM_ANNOTATIONS.isEmpty()) return customAnnotatedClasses;
 		
+		List<IndexedElement> found = AnnotationIndex.scan(pluginId, metadata.getClasses(), this.CUSTOM_ANNOTATIONS);
+		
+		for(IndexedElement element : found) {
+			if(element.getKind() == ElementType.TYPE) {
+				customAnnotatedClasses.get(element.getAnnotation().annotationType().getName()).add(element.getDeclaringClass());
+			}
+		}
+		
+		if(pluginId != null) this.ANNOTATIONS.add(found);
+		
+		return customAnnotatedClasses;
 	}
 	
 	/**
@@ -303,50 +849,28 @@ public class PluginManager {
 		StoredException exceptions = new StoredException();
 		
 		for(File jar : pluginFiles) {
-			Class<?>[] classes = null;
+			if(!this.isValidPlugin(jar, exceptions)) continue;
+			
+			JarMetadata metadata = null;
 			try {
-				classes = JarLoader.loadJar(jar);
+				metadata = this.loadJar(jar);
 			} catch (ClassNotFoundException | IOException e) {
 				exceptions.addException(e);
+				continue;
 			}
-			ArrayList<Class<?>> eventHandlerSubscribers = new ArrayList<Class<?>>();
-			HashMap<String, ArrayList<Class<?>>> customAnnotatedClasses = new HashMap<String, ArrayList<Class<?>>>();
+			this.loadedJars.add(metadata);
+			ArrayList<Class<?>> eventHandlerSubscribers = new ArrayList<Class<?>>(Arrays.asList(metadata.getSubscribers()));
 			Class<?> pluginMain = null;
 			
-			//prepare a holder for each custom annotation
-			for(Class<Annotation> customAnnotation : this.CUSTOM_ANNOTATIONS) {
-				customAnnotatedClasses.put(customAnnotation.getName(), new ArrayList<Class<?>>());
+			Class<?>[] pluginClasses = metadata.getPluginClasses();
+			
+			if(pluginClasses.length > 1) {
+				exceptions.addException(new MalformedPluginException("Multiple plugins detected in jar file " + jar.toString()));
 			}
 			
-			for(Class<?> clazz : classes) {				
-				ConsoleHandler.println("Inspecting " + clazz.getName() + " for annotations, " + clazz.getAnnotations().length + " annotations present");
-				
-				Annotation[] annotations = clazz.getAnnotations();
-				
-				for(Annotation annotation : annotations) {
-					
-										
-					if(annotation.annotationType().isAssignableFrom(Plugin.class)) {
-						ConsoleHandler.println("This class is a Plugin main class, PluginID: " + ((Plugin) annotation).id());
-						if(pluginMain != null ) {
-							exceptions.addException(new MalformedPluginException("Multiple plugins detected in jar file " + jar.toString()));
-						} else {
-							pluginMain = clazz;
-						}
-					}
-					
-					if(annotation.annotationType().isAssignableFrom(EventHandlerSubscriber.class)) {
-						ConsoleHandler.println("This class is an EventHandlerSubscriber");
-						eventHandlerSubscribers.add(clazz);
-					}
-					
-					for(Class<Annotation> customAnnotation : this.CUSTOM_ANNOTATIONS) {
-						if(annotation.annotationType().isAssignableFrom(customAnnotation)) {
-							ConsoleHandler.println("This class has a custom annotation: " + annotation.annotationType().toString());
-							customAnnotatedClasses.get(annotation.annotationType().toString()).add(clazz);
-						}
-					}
-				}
+			if(pluginClasses.length != 0) {
+				ConsoleHandler.println("Plugin main class: " + pluginClasses[0].getName() + ", PluginID: " + pluginClasses[0].getAnnotation(Plugin.class).id());
+				pluginMain = pluginClasses[0];
 			}
 			
 			if(pluginMain == null) {
@@ -354,21 +878,24 @@ public class PluginManager {
 				exceptions.addException(new MalformedPluginException("No plugin entry was found in plugin : " + jar.toString()));
 			}
 			
+			HashMap<String, ArrayList<Class<?>>> customAnnotatedClasses = this.findCustomAnnotatedClasses(metadata, pluginMain == null ? null : pluginMain.getAnnotation(Plugin.class).id());
+			
 			PluginWrapper wrapper = null;
 			
 			try {
-				wrapper = new PluginWrapper(pluginMain, eventHandlerSubscribers, customAnnotatedClasses, pluginMain.getAnnotation(Plugin.class).id(), pluginMain.getAnnotation(Plugin.class).version(), pluginMain.getAnnotation(Plugin.class).name());
+				wrapper = new PluginWrapper(pluginMain, eventHandlerSubscribers, metadata.getHandlerMethods(), customAnnotatedClasses, pluginMain.getAnnotation(Plugin.class).id(), pluginMain.getAnnotation(Plugin.class).version(), pluginMain.getAnnotation(Plugin.class).name());
 			} catch (InstantiationException | IllegalAccessException | IllegalArgumentException
 					| InvocationTargetException | NoSuchMethodException | SecurityException | NullPointerException e) {
 				exceptions.addException(e);
 			}
 			
 			this.PLUGINS.add(wrapper);
+			if(wrapper != null) this.publishServices(metadata, wrapper, exceptions);
 			
 			injectDefaultEvents();
 			
-			for(Class<? extends Event> eventType : this.EVENTS) {
-				this.EVENTLISTENERS.put(eventType, new ArrayList<Method>());
+			for(Class<? extends Event> eventType : this.EVENTLISTENERS.getTypes()) {
+				this.EVENTLISTENERS.clear(eventType);
 			}
 		}
 		
@@ -389,11 +916,16 @@ public class PluginManager {
 		
 		PluginManagerEvent.InitializationEvent inEv = new PluginManagerEvent.InitializationEvent(this);
 		
+		this.addDeclaredDependencies(inEv, exceptions);
+		if(exceptions.recordedExceptions().length != 0) throw exceptions;
+		
 		sendEvent(inEv);
 		
 		ConsoleHandler.println("Checking for dependencies...");
 		ConsoleHandler.println("Dependencies: " + inEv.getDependencies().size());
 		
+		this.recordDependencies(inEv);
+		
 		boolean metDependencies = true;
 		ArrayList<String> missingDependencies = new ArrayList<String>();
 		
@@ -429,19 +961,83 @@ public class PluginManager {
 			throw exceptions;
 		}
 		
+		for(PluginWrapper plugin : this.PLUGINS) {
+			if(plugin != null) plugin.resolve();
+		}
+		
 		ConsoleHandler.println("Done checking dependencies.");
 		ConsoleHandler.println("Registering plugin-injected events...");
 		
 		for(Class<? extends Event> event : inEv.getEvents()) {
-			this.injectEvent(event);
+			try {
+				this.injectEvent(event);
+			} catch (IllegalArgumentException e) {
+				exceptions.addException(e);
+			}
 		}
 		
 		this.refreshEvents();
 		
 		ConsoleHandler.println("Done registering plugin-injected events.");
+		
+		if(!this.remotePluginFiles.isEmpty()) {
+			for(File jar : this.remotePluginFiles) {
+				try {
+					this.REMOTE_PLUGINS.add(RemotePlugin.start(jar, this.EVENTLISTENERS.getTypes(), this.eventSerializer, this.remoteStartTimeout));
+				} catch (IOException e) {
+					exceptions.addException(e);
+				}
+			}
+			
+			this.refreshEvents();
+			
+			if(exceptions.recordedExceptions().length != 0) throw exceptions;
+		}
+		
 		ConsoleHandler.println("Done initialiting.");
 	}
 	
+	/**
+	 * Adds the dependencies declared with @Plugin(dependencies) to the event, before any plugin receives it.
+	 * 
+	 * @param event
+	 * @param exceptions - receives a MalformedPluginException for every entry which cannot be parsed
+	 */
+	private void addDeclaredDependencies(PluginManagerEvent.InitializationEvent event, StoredException exceptions) {
+		for(PluginWrapper plugin : this.PLUGINS) {
+			Plugin annotation = plugin == null ? null : plugin.getMainClass().getAnnotation(Plugin.class);
+			if(annotation == null) continue;
+			
+			for(String dependency : annotation.dependencies()) {
+				String[] split = dependency.split(Pattern.quote("@"));
+				String[] version = split.length == 2 ? split[1].split(Pattern.quote(":")) : new String[] {"any", "any"};
+				
+				if(split.length > 2 || version.length != 2 || split[0].isEmpty()) {
+					exceptions.addException(new MalformedPluginException("Invalid dependency " + dependency + " of plugin " + plugin.getID() + ", expected id or id@lowerVersion:upperVersion"));
+					continue;
+				}
+				
+				event.addDependency(plugin.getID(), split[0], version[0], version[1]);
+			}
+		}
+	}
+	
+	/**
+	 * Remembers which plugin added which dependency, so shutdown() can stop plugins after all plugins depending on them.
+	 * 
+	 * @param event - the dispatched InitializationEvent
+	 */
+	private void recordDependencies(PluginManagerEvent.InitializationEvent event) {
+		for(PluginWrapper plugin : this.PLUGINS) {
+			if(plugin == null) continue;
+			
+			for(String dependency : event.getDependencies(plugin.getID())) {
+				if(!this.DEPENDENCIES.containsKey(plugin.getID())) this.DEPENDENCIES.put(plugin.getID(), new HashSet<String>());
+				this.DEPENDENCIES.get(plugin.getID()).add(dependency);
+			}
+		}
+	}
+	
 	/**
 	 * convenienve method
 	 * 
@@ -449,6 +1045,255 @@ public class PluginManager {
 	private void injectDefaultEvents() {
 		this.injectEvent(PluginManagerEvent.ConfigurationLoadingEvent.class);
 		this.injectEvent(PluginManagerEvent.InitializationEvent.class);
+		this.injectEvent(PluginManagerEvent.ConfigurationChangedEvent.class);
+		this.injectEvent(PluginManagerEvent.ShutdownEvent.class);
+	}
+	
+	/**
+	 * Shuts this PluginManager down:
+	 * 
+	 * 1. Coalesced events which are still pending are delivered and the coalescing timer is stopped, events sent from now on
+	 * are delivered right away.
+	 * 2. The plugins are stopped in reverse dependency order (see InitializationEvent:addDependency(String, String, String, String)),
+	 * each one receiving a ShutdownEvent first and then losing its services. Plugins which don't depend on each other are stopped in parallel.
+	 * 3. The eventHandlers and the annotation index are cleared, the journal is closed and the plugin jars are released (see
+	 * JarCache:release()), which closes their class loaders unless another PluginManager shares the same jar.
+	 * 
+	 * Plugins which did not stop before the timeout are stopped without waiting for their eventHandlers, the resources are
+	 * released in any case. Events sent afterwards are rejected with an IllegalStateException.
+	 * 
+	 * Only the first call shuts down. Later calls wait for it, at most for their own timeout, and return its result. The
+	 * exceptions of the eventHandlers are only thrown to the first call.
+	 * 
+	 * @param timeout - the time the whole shutdown may take
+	 * @return true if everything was stopped in time
+	 * @throws StoredException if eventHandlers threw exceptions during the shutdown
+	 */
+	public boolean shutdown(Duration timeout) throws StoredException {
+		CompletableFuture<Boolean> result = null;
+		
+		synchronized(this) {
+			result = this.shutdownResult;
+			if(result == null) {
+				this.shutdownResult = new CompletableFuture<Boolean>();
+				this.shuttingDown = true;
+			}
+		}
+		
+		if(result != null) return awaitShutdown(result, timeout);
+		
+		result = this.shutdownResult;
+		try {
+			return this.stopAll(timeout, result);
+		} finally {
+			//completes the result if the shutdown failed unexpectedly, does nothing otherwise
+			result.complete(false);
+		}
+	}
+	
+	private static boolean awaitShutdown(CompletableFuture<Boolean> result, Duration timeout) {
+		try {
+			return result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	private boolean stopAll(Duration timeout, CompletableFuture<Boolean> result) throws StoredException {
+		ConsoleHandler.println("Shutting down...");
+		
+		long deadline = System.nanoTime() + timeout.toNanos();
+		StoredException exceptions = new StoredException();
+		boolean inTime = true;
+		
+		//deliver pending events while their receivers are still running
+		for(Event event : this.COALESCER.drain()) {
+			try {
+				this.dispatchHeldEvent(event);
+			} catch (StoredException e) {
+				addAll(exceptions, e);
+			}
+		}
+		
+		try {
+			inTime = this.COALESCER.shutdown(remainingMillis(deadline));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			inTime = false;
+		}
+		
+		ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "PluginManager-Shutdown");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		try {
+			//remote plugins only depend on the plugin manager, they are stopped alongside the local ones
+			ArrayList<Future<Boolean>> remotes = new ArrayList<Future<Boolean>>();
+			for(final RemotePlugin remote : this.REMOTE_PLUGINS) {
+				remotes.add(executor.submit(() -> remote.close(Duration.ofMillis(remainingMillis(deadline)))));
+			}
+			
+			inTime = this.stopPlugins(deadline, exceptions, executor) && inTime;
+			
+			for(Future<Boolean> remote : remotes) {
+				try {
+					//close() kills the host once the deadline passed, allow it a moment to do so
+					inTime = remote.get(remainingMillis(deadline) + 1000, TimeUnit.MILLISECONDS) && inTime;
+				} catch (TimeoutException | ExecutionException e) {
+					inTime = false;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					inTime = false;
+				}
+			}
+			this.REMOTE_PLUGINS.clear();
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		this.EVENTLISTENERS.clearAll();
+		this.ANNOTATIONS.clear();
+		this.SERVICES.clear();
+		
+		for(JarMetadata jar : this.loadedJars) {
+			JarCache.release(jar);
+		}
+		this.loadedJars.clear();
+		
+		EventJournal journal = this.journal;
+		if(journal != null) journal.close();
+		
+		this.shutDown = true;
+		result.complete(inTime);
+		
+		ConsoleHandler.println(inTime ? "Done shutting down." : "Shut down, but not everything stopped in time.");
+		
+		if(exceptions.recordedExceptions().length != 0) throw exceptions;
+		
+		return inTime;
+	}
+	
+	/**
+	 * Stops the plugins in waves, each wave holds the plugins which no running plugin depends on anymore.
+	 * 
+	 * @return true if all plugins stopped before the deadline
+	 */
+	private boolean stopPlugins(long deadline, StoredException exceptions, ExecutorService executor) {
+		ArrayList<PluginWrapper> running = new ArrayList<PluginWrapper>();
+		for(PluginWrapper plugin : this.PLUGINS) {
+			if(plugin != null && plugin.getState() != PluginState.STOPPED) running.add(plugin);
+		}
+		
+		boolean inTime = true;
+		
+		while(!running.isEmpty() && inTime) {
+			ArrayList<PluginWrapper> wave = new ArrayList<PluginWrapper>();
+			for(PluginWrapper plugin : running) {
+				if(!this.isDependedOn(plugin.getID(), running)) wave.add(plugin);
+			}
+			
+			//circular dependencies, nothing can go first
+			if(wave.isEmpty()) wave.addAll(running);
+			
+			ArrayList<Future<StoredException>> stopping = new ArrayList<Future<StoredException>>();
+			for(final PluginWrapper plugin : wave) {
+				stopping.add(executor.submit(() -> this.stopPlugin(plugin, deadline)));
+			}
+			
+			for(int i = 0; i < wave.size(); i++) {
+				try {
+					StoredException thrown = stopping.get(i).get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+					if(thrown != null) addAll(exceptions, thrown);
+				} catch (TimeoutException e) {
+					ConsoleHandler.println("Plugin " + wave.get(i).getID() + " did not stop in time");
+					inTime = false;
+				} catch (ExecutionException e) {
+					exceptions.addException(e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					inTime = false;
+				}
+			}
+			
+			running.removeAll(wave);
+			if(!running.isEmpty()) this.removeShutdownHandlers(wave);
+		}
+		
+		//plugins which did not get to receive their ShutdownEvent in time
+		for(PluginWrapper plugin : running) {
+			plugin.stop();
+		}
+		
+		return inTime;
+	}
+	
+	private boolean isDependedOn(String id, List<PluginWrapper> running) {
+		for(PluginWrapper plugin : running) {
+			Set<String> dependencies = this.DEPENDENCIES.get(plugin.getID());
+			if(dependencies != null && !plugin.getID().equals(id) && dependencies.contains(id)) return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Sends the ShutdownEvent of the plugin, routed by its id like any other event, and stops the plugin. A lazy plugin which
+	 * was never activated is stopped first, there is nothing to shut down and its eventHandlers must not activate it.
+	 * 
+	 * @return the exceptions thrown by the eventHandlers, or null
+	 */
+	private StoredException stopPlugin(PluginWrapper plugin, long deadline) {
+		PluginManagerEvent.ShutdownEvent event = new PluginManagerEvent.ShutdownEvent(this, plugin.getID(), deadline);
+		StoredException exception = null;
+		
+		if(plugin.isLazy() && plugin.getState() != PluginState.ACTIVE) plugin.stop();
+		
+		try {
+			this.dispatchEvent(event, null);
+		} catch (StoredException e) {
+			exception = e;
+		}
+		
+		this.SERVICES.unregisterAll(plugin.getID());
+		plugin.stop();
+		
+		return exception;
+	}
+	
+	/**
+	 * Removes the ShutdownEvent handlers of stopped plugins, so they don't see the shutdown of the plugins stopped after them.
+	 * 
+	 * @param stopped
+	 */
+	private void removeShutdownHandlers(List<PluginWrapper> stopped) {
+		HashSet<String> ids = new HashSet<String>();
+		for(PluginWrapper plugin : stopped) {
+			ids.add(plugin.getID());
+		}
+		
+		ArrayList<RegisteredHandler> kept = new ArrayList<RegisteredHandler>();
+		for(RegisteredHandler handler : this.EVENTLISTENERS.getHandlers(PluginManagerEvent.ShutdownEvent.class)) {
+			if(!ids.contains(handler.getOwner())) kept.add(handler);
+		}
+		
+		this.EVENTLISTENERS.clear(PluginManagerEvent.ShutdownEvent.class);
+		this.EVENTLISTENERS.add(PluginManagerEvent.ShutdownEvent.class, kept);
+		this.indexHandlers(PluginManagerEvent.ShutdownEvent.class);
+	}
+	
+	private static long remainingMillis(long deadline) {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+	}
+	
+	private static void addAll(StoredException target, StoredException source) {
+		for(Exception recorded : source.recordedExceptions()) {
+			target.addException(recorded);
+		}
 	}
 
 	/**
@@ -476,7 +1321,18 @@ public class PluginManager {
 	}
 	
 	/**
-	 * Gets the Instance of the specified plugin.
+	 * Gets the lifecycle state of the plugin with the id.
+	 * 
+	 * @param id
+	 * @return the state, or null if no plugin with the id is loaded
+	 */
+	public PluginState getPluginState(String id) {
+		PluginWrapper plugin = this.getPlugin(id);
+		return plugin == null ? null : plugin.getState();
+	}
+	
+	/**
+	 * Gets the Instance of the specified plugin. Lazy plugins are activated by this.
 	 * 
 	 * @param name
 	 * @return
@@ -491,38 +1347,188 @@ public class PluginManager {
 		return null;
 	}
 	
+	/**
+	 * Coalesces events of the given type, regardless of whether the type is annotated with @Coalesce. See @Coalesce for how
+	 * the parameters are used.
+	 * 
+	 * @param eventType
+	 * @param windowMillis
+	 * @param maxMerged
+	 * @throws IllegalArgumentException if the window is not positive or maxMerged is negative
+	 */
+	public void setCoalescing(Class<? extends Event> eventType, long windowMillis, int maxMerged) {
+		this.COALESCER.setPolicy(eventType, windowMillis, maxMerged);
+	}
+	
+	/**
+	 * Stops coalescing events of the given type, even if the type is annotated with @Coalesce.
+	 * 
+	 * @param eventType
+	 */
+	public void removeCoalescing(Class<? extends Event> eventType) {
+		this.COALESCER.removePolicy(eventType);
+	}
+	
+	/**
+	 * Delivers all coalesced events which are still pending right away.
+	 * 
+	 * @throws StoredException
+	 */
+	public void flushCoalescedEvents() throws StoredException {
+		StoredException exception = new StoredException();
+		
+		for(Event event : this.COALESCER.drain()) {
+			try {
+				this.dispatchHeldEvent(event);
+			} catch (StoredException e) {
+				for(Exception recorded : e.recordedExceptions()) {
+					exception.addException(recorded);
+				}
+			}
+		}
+		
+		if(exception.recordedExceptions().length != 0) throw exception;
+	}
+	
+	/**
+	 * Receives the exceptions thrown by eventHandlers of coalesced events which were delivered by the timer thread, as there
+	 * is no caller to throw them to. By default they are printed through the ConsoleHandler.
+	 * 
+	 * @param handler - the new handler, null to restore the default
+	 */
+	public void setCoalescingExceptionHandler(Consumer<StoredException> handler) {
+		this.coalescingExceptionHandler = handler;
+	}
+	
+	/**
+	 * Called by the coalescer once a pending event is due, exceptions go to the coalescing exception handler.
+	 * 
+	 * @param event
+	 */
+	private void sendCoalescedEvent(Event event) {
+		try {
+			this.dispatchHeldEvent(event);
+		} catch (StoredException e) {
+			Consumer<StoredException> handler = this.coalescingExceptionHandler;
+			
+			if(handler != null) {
+				handler.accept(e);
+				return;
+			}
+			
+			for(Exception recorded : e.recordedExceptions()) {
+				ConsoleHandler.println("EventHandler of coalesced event " + event.getClass().getName() + " threw " + recorded);
+			}
+		}
+	}
+	
 	/**
 	 * Send an event to all the plugins. Only EventHandlers which's parameter matches the type of event you send will receive the event.
+	 * If the type of the event is coalesced, the event might be delivered later, merged with newer events of the same type and key.
+	 * Events sent during shutdown() are never coalesced.
+	 * 
+	 * A PooledEvent may be released once this returns, the PluginManager retains it for as long as it holds it back.
+	 * 
+	 * If a journal is set, the event is recorded before it is coalesced or dispatched.
 	 * 
 	 * @param event
 	 * @return
 	 * @throws StoredException 
-	 * @throws InvocationTargetException 
-	 * @throws IllegalArgumentException 
-	 * @throws IllegalAccessException 
 	 */
 	public void sendEvent(Event event) throws StoredException {
+		if(this.shutDown) throw new IllegalStateException("The PluginManager was shut down");
 		
-		ConsoleHandler.println("Sending event " + event.getClass().toString());
+		EventJournal journal = this.journal;
+		if(journal != null) journal.recordQuietly(event);
 		
-		ArrayList<Method> methods = this.EVENTLISTENERS.get(event.getClass());
+		if(!this.shuttingDown && this.COALESCER.isCoalesced(event.getClass())) {
+			Event due = this.COALESCER.offer(event);
+			if(due != null) this.dispatchHeldEvent(due);
+			return;
+		}
 		
-		StoredException exception = new StoredException();
+		this.dispatchEvent(event, null);
+	}
+	
+	/**
+	 * Records every event passed to sendEvent() in the journal from now on, events sent to a single plugin are not recorded.
+	 * The journal is closed by shutdown(). Replay it with EventJournal:replay().
+	 * 
+	 * @param journal - the journal, or null to stop recording
+	 */
+	public void setJournal(EventJournal journal) {
+		this.journal = journal;
+	}
+	
+	public EventJournal getJournal() {
+		return this.journal;
+	}
+	
+	/**
+	 * Send an event only to the eventHandlers of one plugin. The event is routed and dispatched like any other event, but is
+	 * never coalesced.
+	 * 
+	 * @param event
+	 * @param pluginId - the id of the plugin whose eventHandlers receive the event
+	 * @throws StoredException
+	 */
+	public void sendEventToPlugin(Event event, String pluginId) throws StoredException {
+		if(this.shutDown) throw new IllegalStateException("The PluginManager was shut down");
 		
-		if(methods != null) {
-			for(Method method : methods) {
-				try {
-					method.invoke(null, event);
-				} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | NullPointerException e) {
-					ConsoleHandler.println("Error invoking eventHandler on " + method.toString() + ", is the method static?");
-					exception.addException(e);
-				}
-				event.addHandler(method);
+		this.dispatchEvent(event, pluginId);
+	}
+	
+	/**
+	 * Dispatches an event which left the coalescer and releases the reference the coalescer held.
+	 * 
+	 * @param event
+	 * @throws StoredException
+	 */
+	private void dispatchHeldEvent(Event event) throws StoredException {
+		try {
+			this.dispatchEvent(event, null);
+		} finally {
+			EventCoalescer.release(event);
+		}
+	}
+	
+	/**
+	 * @param event
+	 * @param pluginId - the id of the only plugin whose eventHandlers receive the event, or null for all plugins
+	 * @throws StoredException
+	 */
+	private void dispatchEvent(Event event, String pluginId) throws StoredException {
+		
+		//don't build the message for every event while logging is off
+		if(ConsoleHandler.getOutputting()) ConsoleHandler.println("Sending event " + event.getClass().toString() + (pluginId == null ? "" : " to plugin " + pluginId));
+		
+		HandlerIndex index = this.EVENTLISTENERS.getIndex(event.getClass());
+		
+		StoredException exception = null;
+		RecordedEvents.Dispatch recorded = RecordedEvents.isDispatchEnabled() ? new RecordedEvents.Dispatch() : null;
+		if(recorded != null) recorded.begin();
+		
+		if(index != null) {
+			String key = event.getRoutingKey();
+			
+			//timing every handler on its own defeats the generated and parallel dispatchers, only do it while a recording asks for it
+			if(RecordedEvents.isSlowHandlerEnabled()) {
+				exception = DispatcherGenerator.timed(pluginId == null ? index.get(key) : index.get(key, pluginId)).dispatch(event);
+			} else {
+				exception = (pluginId == null ? index.getDispatcher(key) : index.getDispatcher(key, pluginId)).dispatch(event);
 			}
 		}
 		
-		if(exception.recordedExceptions().length != 0) throw exception;
+		if(recorded != null) recorded.end();
+		if(recorded != null && recorded.shouldCommit()) {
+			recorded.eventType = event.getClass().getName();
+			recorded.routingKey = event.getRoutingKey();
+			recorded.plugin = pluginId;
+			recorded.handlers = index == null ? 0 : (pluginId == null ? index.get(event.getRoutingKey()) : index.get(event.getRoutingKey(), pluginId)).length;
+			recorded.failed = exception == null ? 0 : exception.recordedExceptions().length;
+			recorded.commit();
+		}
 		
-		exception = null;		
+		if(exception != null) throw exception;
 	}
-}
\ No newline at end of file
+}
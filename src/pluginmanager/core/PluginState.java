@@ -0,0 +1,30 @@
+package pluginmanager.core;
+
+/**
+ * The lifecycle of a plugin: DISCOVERED -> RESOLVED -> ACTIVE -> STOPPED. Plugins which are not lazy (see Plugin:lazy())
+ * are activated as soon as they are discovered.
+ * 
+ * @author alexander
+ *
+ */
+public enum PluginState {
+	/**
+	 * The jar was loaded and the plugin classes are known, but no instance exists.
+	 */
+	DISCOVERED,
+	
+	/**
+	 * All dependencies of the plugin were found.
+	 */
+	RESOLVED,
+	
+	/**
+	 * The plugin main class and its subscribers were instantiated.
+	 */
+	ACTIVE,
+	
+	/**
+	 * The plugin was stopped and its instances released, it will not be activated again.
+	 */
+	STOPPED
+}
@@ -2,8 +2,20 @@ package pluginmanager.core;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pluginmanager.api.annotations.Plugin;
+import pluginmanager.api.event.PluginManagerEvent;
+import pluginmanager.core.events.RegisteredHandler;
+import pluginmanager.loading.JarMetadata;
+import pluginmanager.util.ConsoleHandler;
 
 public class PluginWrapper {
 	
@@ -11,20 +23,168 @@ public class PluginWrapper {
 	private final String pluginVersion;
 	private final String pluginName;
 	private final Class<?> pluginClass;
-	private final ArrayList<Class<?>> eventHandlerSubscribers;
-	private final HashMap<String, ArrayList<Class<?>>> customAnnotated;
-	private final Object pluginInstance;
+	private final List<Class<?>> eventHandlerSubscribers;
+	private final Map<String, List<Class<?>>> customAnnotated;
+	private final boolean lazy;
+	private volatile PluginState state = PluginState.DISCOVERED;
+	private volatile Object pluginInstance;
+	private final HashMap<Class<?>, Object> subscriberInstances = new HashMap<Class<?>, Object>();
+	private final HashMap<Class<?>, Method[]> handlerMethods = new HashMap<Class<?>, Method[]>();
 	
 	public PluginWrapper(Class<?> pluginClass, ArrayList<Class<?>> subscribers, HashMap<String, ArrayList<Class<?>>>
+	withCustomAnnotation, String id, String version, String name) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
+		this(pluginClass, subscribers, null, withCustomAnnotation, id, version, name);
+	}
+	
+	/**
+	 * @param handlerMethods - the eventHandlers of each subscriber, usually shared through the JarCache. Subscribers missing from
+	 * the map (or all of them if null is passed) are scanned for eventHandlers.
+	 */
+	public PluginWrapper(Class<?> pluginClass, ArrayList<Class<?>> subscribers, Map<Class<?>, Method[]> handlerMethods, HashMap<String, ArrayList<Class<?>>>
 	withCustomAnnotation, String id, String version, String name) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
 	
 		this.pluginClass = pluginClass;
-		this.eventHandlerSubscribers = subscribers;
-		this.customAnnotated = withCustomAnnotation;
-		this.pluginInstance = this.getNewPluginInstance();
+		this.eventHandlerSubscribers = readOnly(subscribers);
+		
+		//plugins are loaded once and rarely have custom annotated classes, keep exactly sized arrays instead of growable lists
+		HashMap<String, List<Class<?>>> customAnnotated = new HashMap<String, List<Class<?>>>();
+		for(Map.Entry<String, ArrayList<Class<?>>> entry : withCustomAnnotation.entrySet()) {
+			if(!entry.getValue().isEmpty()) customAnnotated.put(entry.getKey(), readOnly(entry.getValue()));
+		}
+		this.customAnnotated = customAnnotated.isEmpty() ? Collections.<String, List<Class<?>>>emptyMap() : Collections.unmodifiableMap(customAnnotated);
 		this.pluginID = id;
 		this.pluginVersion = version;
 		this.pluginName = name;
+		
+		Plugin annotation = pluginClass.getAnnotation(Plugin.class);
+		this.lazy = annotation != null && annotation.lazy();
+		
+		for(Class<?> subscriber : subscribers) {
+			Method[] methods = handlerMethods == null ? null : handlerMethods.get(subscriber);
+			if(methods == null) methods = JarMetadata.findHandlerMethods(subscriber);
+			this.handlerMethods.put(subscriber, methods);
+		}
+		
+		if(this.lazy) warnAboutInitializationHandlers();
+		else this.activate();
+	}
+	
+	/**
+	 * Lazy plugins are resolved after the InitializationEvent, so their non-static handlers for it are never called.
+	 */
+	private void warnAboutInitializationHandlers() {
+		for(Method[] methods : this.handlerMethods.values()) {
+			for(Method method : methods) {
+				if(Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 1) continue;
+				if(method.getParameterTypes()[0] != PluginManagerEvent.InitializationEvent.class) continue;
+				
+				ConsoleHandler.println("Warning: the lazy plugin " + this.pluginID + " does not receive the InitializationEvent in the non-static eventHandler "
+						+ method.toString() + ", declare its dependencies with @Plugin(dependencies) or make the eventHandler static");
+			}
+		}
+	}
+	
+	/**
+	 * Initializes the plugin main class and every subscriber class, then instantiates the main class and every subscriber class
+	 * with non-static eventHandlers, the main class reuses the plugin instance. Plugin classes are loaded without being
+	 * initialized, so this is where their static initializers run. Does nothing if the plugin is active already.
+	 * 
+	 * @throws IllegalStateException if the plugin was stopped or is lazy and not resolved yet
+	 * @throws ExceptionInInitializerError if the static initializer of a plugin class failed
+	 */
+	public synchronized void activate() throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
+		if(this.state == PluginState.ACTIVE) return;
+		if(this.state == PluginState.STOPPED) throw new IllegalStateException("The plugin " + this.pluginID + " was stopped");
+		if(this.lazy && this.state == PluginState.DISCOVERED) throw new IllegalStateException("The lazy plugin " + this.pluginID + " is not resolved yet");
+		
+		ConsoleHandler.println("Activating plugin " + this.pluginID);
+		
+		initialize(this.pluginClass);
+		for(Class<?> subscriber : this.eventHandlerSubscribers) {
+			initialize(subscriber);
+		}
+		
+		Object instance = this.getNewPluginInstance();
+		HashMap<Class<?>, Object> subscribers = new HashMap<Class<?>, Object>();
+		
+		for(Class<?> subscriber : this.eventHandlerSubscribers) {
+			if(subscriber == this.pluginClass) {
+				subscribers.put(subscriber, instance);
+			} else if(hasInstanceHandlers(this.handlerMethods.get(subscriber))) {
+				subscribers.put(subscriber, subscriber.getConstructor().newInstance());
+			}
+		}
+		
+		this.subscriberInstances.putAll(subscribers);
+		this.pluginInstance = instance;
+		this.state = PluginState.ACTIVE;
+	}
+	
+	/**
+	 * Marks the plugin as resolved once its dependencies were found. Plugins which are active already stay active.
+	 */
+	synchronized void resolve() {
+		if(this.state == PluginState.DISCOVERED) this.state = PluginState.RESOLVED;
+	}
+	
+	/**
+	 * Stops the plugin, its instances are dropped and it cannot be activated again.
+	 */
+	synchronized void stop() {
+		if(this.state == PluginState.STOPPED) return;
+		
+		ConsoleHandler.println("Stopping plugin " + this.pluginID);
+		
+		this.state = PluginState.STOPPED;
+		this.pluginInstance = null;
+		this.subscriberInstances.clear();
+	}
+	
+	private static void initialize(Class<?> clazz) {
+		try {
+			Class.forName(clazz.getName(), true, clazz.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			//the class was loaded through this loader already, it can always be found again
+			throw new IllegalStateException("The loaded class " + clazz.getName() + " could not be found", e);
+		}
+	}
+	
+	private static List<Class<?>> readOnly(List<Class<?>> classes) {
+		return Collections.unmodifiableList(Arrays.asList(classes.toArray(new Class<?>[classes.size()])));
+	}
+	
+	private static boolean hasInstanceHandlers(Method[] handlers) {
+		for(Method method : handlers) {
+			if(!Modifier.isStatic(method.getModifiers())) return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Creates the registered handler for an eventHandler of this plugin. Non-static eventHandlers of a lazy plugin which is not
+	 * active yet activate the plugin when they receive their first event after the plugin was resolved, events dispatched
+	 * before or after the plugin was stopped are not delivered to them.
+	 * 
+	 * @param method
+	 * @param subscriber - the subscriber class declaring the method
+	 * @return the handler
+	 * @throws IllegalAccessException
+	 */
+	RegisteredHandler createHandler(Method method, final Class<?> subscriber) throws IllegalAccessException {
+		if(Modifier.isStatic(method.getModifiers()) || this.state == PluginState.ACTIVE) {
+			return new RegisteredHandler(method, this.getSubscriberInstance(subscriber), this.pluginID);
+		}
+		
+		return new RegisteredHandler(method, this.pluginID, () -> {
+			synchronized(this) {
+				//events dispatched before the plugin was resolved, e.g. the InitializationEvent, or after it was stopped do not activate it
+				if(this.state == PluginState.DISCOVERED || this.state == PluginState.STOPPED) return null;
+				
+				this.activate();
+				return this.getSubscriberInstance(subscriber);
+			}
+		});
 	}
 	
 	/**
@@ -50,18 +210,29 @@ public class PluginWrapper {
 	/**
 	 * Get all eventHandlers in this plugin
 	 * 
-	 * @return an Array of EventHandlers
+	 * @return a read-only list of the subscriber classes
+	 */
+	public List<Class<?>> getEventHandlers() {
+		return this.eventHandlerSubscribers;
+	}
+	
+	/**
+	 * Get the methods annotated with @EventHandler of a subscriber class of this plugin. The array is shared, do not modify it.
+	 * 
+	 * @param subscriber
+	 * @return an Array of methods or an empty array if the class is not a subscriber of this plugin
 	 */
-	public Class<?>[] getEventHandlers() {
-		return this.eventHandlerSubscribers.toArray(new Class<?>[this.eventHandlerSubscribers.size()]);
+	public Method[] getHandlerMethods(Class<?> subscriber) {
+		Method[] methods = this.handlerMethods.get(subscriber);
+		return methods == null ? new Method[0] : methods;
 	}
 	
 	/**
 	 * Get all classses with custom Annotations
 	 * 
-	 * @return
+	 * @return a read-only map from annotation name to the read-only list of classes annotated with it
 	 */
-	public HashMap<String, ArrayList<Class<?>>> getCustomAnnotatedClasses() {
+	public Map<String, List<Class<?>>> getCustomAnnotatedClasses() {
 		return this.customAnnotated;
 	}
 	
@@ -69,10 +240,43 @@ public class PluginWrapper {
 		return this.pluginClass;
 	}
 	
+	/**
+	 * Gets the instance of this plugin, activating the plugin if it is lazy and not active yet.
+	 * 
+	 * @return the instance, or null if the plugin was stopped
+	 * @throws IllegalStateException if the plugin could not be activated or is lazy and not resolved yet
+	 */
 	public Object getInstance() {
+		if(this.state != PluginState.ACTIVE && this.state != PluginState.STOPPED) {
+			try {
+				this.activate();
+			} catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException
+					| NoSuchMethodException | SecurityException e) {
+				throw new IllegalStateException("The plugin " + this.pluginID + " could not be activated", e);
+			}
+		}
+		
 		return this.pluginInstance;
 	}
 	
+	public PluginState getState() {
+		return this.state;
+	}
+	
+	public boolean isLazy() {
+		return this.lazy;
+	}
+	
+	/**
+	 * Gets the instance non-static eventHandlers of the subscriber class are called on.
+	 * 
+	 * @param subscriber
+	 * @return the instance or null if the class has no non-static eventHandlers, is not a subscriber of this plugin or the plugin is not active.
+	 */
+	public synchronized Object getSubscriberInstance(Class<?> subscriber) {
+		return this.subscriberInstances.get(subscriber);
+	}
+	
 	public String getID() {
 		return this.pluginID;
 	}
@@ -89,14 +293,11 @@ public class PluginWrapper {
 	 * Gets  all classes in this plugin with the Annotation with the name name.
 	 * 
 	 * @param name
-	 * @return an Array of classes or an empty array if no classes with that annotation were found.
+	 * @return a read-only list of classes, empty if no classes with that annotation were found.
 	 */
-	public Class<?>[] getClassesWithAnnotation(String name) {
-		if (this.customAnnotated.get(name) == null) {
-			return new Class<?>[0];
-		} else {
-			return this.customAnnotated.get(name).toArray(new Class<?>[this.customAnnotated.get(name).size()]);
-		}
+	public List<Class<?>> getClassesWithAnnotation(String name) {
+		List<Class<?>> classes = this.customAnnotated.get(name);
+		return classes == null ? Collections.<Class<?>>emptyList() : classes;
 	}
 
 
@@ -0,0 +1,197 @@
+package pluginmanager.core.annotations;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pluginmanager.util.ConsoleHandler;
+
+/**
+ * The classes, methods and fields of all plugins carrying one of the custom annotations of a PluginManager, together with the
+ * values of the annotation attributes. The plugin jars are scanned once when they are loaded, queries are a single map lookup
+ * and return read-only views, so host applications can find their extension points without reflecting over the plugins.
+ * 
+ * Like the HandlerRegistry, the lists are replaced instead of modified, readers need no lock and changes are synchronized.
+ * 
+ * @author alexander
+ *
+ */
+public class AnnotationIndex {
+	
+	private static final IndexedElement[] NONE = new IndexedElement[0];
+	
+	//every annotation type has one array of all its elements and one per kind of element
+	private final Map<Class<? extends Annotation>, IndexedElement[]> all = new ConcurrentHashMap<Class<? extends Annotation>, IndexedElement[]>();
+	private final Map<Class<? extends Annotation>, IndexedElement[]> types = new ConcurrentHashMap<Class<? extends Annotation>, IndexedElement[]>();
+	private final Map<Class<? extends Annotation>, IndexedElement[]> methods = new ConcurrentHashMap<Class<? extends Annotation>, IndexedElement[]>();
+	private final Map<Class<? extends Annotation>, IndexedElement[]> fields = new ConcurrentHashMap<Class<? extends Annotation>, IndexedElement[]>();
+	
+	/**
+	 * Finds the classes, methods and fields carrying one of the annotations. The result is not added to the index, see add().
+	 * 
+	 * @param pluginId - the plugin the classes belong to
+	 * @param classes - the classes of the plugin jar
+	 * @param annotations - the annotation types to look for
+	 * @return the annotated elements in the order of the classes, each class followed by its methods and fields
+	 */
+	public static List<IndexedElement> scan(String pluginId, Class<?>[] classes, Collection<? extends Class<? extends Annotation>> annotations) {
+		ArrayList<IndexedElement> found = new ArrayList<IndexedElement>();
+		if(annotations.isEmpty()) return found;
+		
+		for(Class<?> clazz : classes) {
+			try {
+				collect(found, pluginId, clazz, clazz, ElementType.TYPE, annotations);
+				
+				for(Method method : clazz.getDeclaredMethods()) {
+					collect(found, pluginId, clazz, method, ElementType.METHOD, annotations);
+				}
+				
+				for(Field field : clazz.getDeclaredFields()) {
+					collect(found, pluginId, clazz, field, ElementType.FIELD, annotations);
+				}
+			} catch (LinkageError e) {
+				//a member references a class which is not on the classpath
+				ConsoleHandler.println("Could not inspect " + clazz.getName() + " for custom annotations: " + e.toString());
+			}
+		}
+		
+		return found;
+	}
+	
+	private static void collect(List<IndexedElement> found, String pluginId, Class<?> clazz, AnnotatedElement element, ElementType kind, Collection<? extends Class<? extends Annotation>> annotations) {
+		for(Class<? extends Annotation> type : annotations) {
+			Annotation annotation = element.getAnnotation(type);
+			if(annotation == null) continue;
+			
+			ConsoleHandler.println("Found custom annotation " + type.getName() + " on " + element.toString());
+			found.add(new IndexedElement(pluginId, clazz, element, kind, annotation, attributes(annotation)));
+		}
+	}
+	
+	private static Map<String, Object> attributes(Annotation annotation) {
+		Method[] attributes = annotation.annotationType().getDeclaredMethods();
+		if(attributes.length == 0) return Collections.emptyMap();
+		
+		LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		for(Method attribute : attributes) {
+			if(attribute.getParameterCount() != 0) continue;
+			
+			try {
+				attribute.setAccessible(true);
+				values.put(attribute.getName(), attribute.invoke(annotation));
+			} catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+				ConsoleHandler.println("Could not read attribute " + attribute.getName() + " of " + annotation.toString() + ": " + e.toString());
+			}
+		}
+		
+		return Collections.unmodifiableMap(values);
+	}
+	
+	/**
+	 * Adds scanned elements to the index.
+	 * 
+	 * @param elements - see scan()
+	 */
+	public synchronized void add(List<IndexedElement> elements) {
+		if(elements.isEmpty()) return;
+		
+		//group by annotation type first, so each array is only replaced once
+		LinkedHashMap<Class<? extends Annotation>, ArrayList<IndexedElement>> added = new LinkedHashMap<Class<? extends Annotation>, ArrayList<IndexedElement>>();
+		for(IndexedElement element : elements) {
+			Class<? extends Annotation> type = element.getAnnotation().annotationType();
+			if(!added.containsKey(type)) added.put(type, new ArrayList<IndexedElement>());
+			added.get(type).add(element);
+		}
+		
+		for(Map.Entry<Class<? extends Annotation>, ArrayList<IndexedElement>> entry : added.entrySet()) {
+			Class<? extends Annotation> type = entry.getKey();
+			
+			append(this.all, type, entry.getValue(), null);
+			append(this.types, type, entry.getValue(), ElementType.TYPE);
+			append(this.methods, type, entry.getValue(), ElementType.METHOD);
+			append(this.fields, type, entry.getValue(), ElementType.FIELD);
+		}
+	}
+	
+	private static void append(Map<Class<? extends Annotation>, IndexedElement[]> table, Class<? extends Annotation> type, List<IndexedElement> added, ElementType kind) {
+		IndexedElement[] current = table.get(type);
+		if(current == null) current = NONE;
+		
+		ArrayList<IndexedElement> grown = new ArrayList<IndexedElement>(current.length + added.size());
+		grown.addAll(Arrays.asList(current));
+		for(IndexedElement element : added) {
+			if(kind == null || element.getKind() == kind) grown.add(element);
+		}
+		
+		if(grown.size() != current.length) table.put(type, grown.toArray(new IndexedElement[grown.size()]));
+	}
+	
+	/**
+	 * Removes the elements of a plugin.
+	 * 
+	 * @param pluginId
+	 */
+	public synchronized void remove(String pluginId) {
+		for(Map<Class<? extends Annotation>, IndexedElement[]> table : Arrays.asList(this.all, this.types, this.methods, this.fields)) {
+			for(Map.Entry<Class<? extends Annotation>, IndexedElement[]> entry : table.entrySet()) {
+				ArrayList<IndexedElement> kept = new ArrayList<IndexedElement>();
+				for(IndexedElement element : entry.getValue()) {
+					if(!pluginId.equals(element.getPluginId())) kept.add(element);
+				}
+				
+				if(kept.size() != entry.getValue().length) entry.setValue(kept.toArray(new IndexedElement[kept.size()]));
+			}
+		}
+	}
+	
+	/**
+	 * Removes all elements.
+	 */
+	public synchronized void clear() {
+		this.all.clear();
+		this.types.clear();
+		this.methods.clear();
+		this.fields.clear();
+	}
+	
+	/**
+	 * @param annotation
+	 * @return a read-only view of the classes, methods and fields of all plugins carrying the annotation
+	 */
+	public List<IndexedElement> getAnnotated(Class<? extends Annotation> annotation) {
+		return view(this.all.get(annotation));
+	}
+	
+	/**
+	 * @param annotation
+	 * @param kind - TYPE, METHOD or FIELD
+	 * @return a read-only view of the elements of that kind of all plugins carrying the annotation
+	 */
+	public List<IndexedElement> getAnnotated(Class<? extends Annotation> annotation, ElementType kind) {
+		switch(kind) {
+		case TYPE:
+			return view(this.types.get(annotation));
+		case METHOD:
+			return view(this.methods.get(annotation));
+		case FIELD:
+			return view(this.fields.get(annotation));
+		default:
+			return Collections.emptyList();
+		}
+	}
+	
+	private static List<IndexedElement> view(IndexedElement[] elements) {
+		return elements == null ? Collections.<IndexedElement>emptyList() : Collections.unmodifiableList(Arrays.asList(elements));
+	}
+}
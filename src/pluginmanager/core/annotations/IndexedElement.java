@@ -0,0 +1,108 @@
+package pluginmanager.core.annotations;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * A class, method or field of a plugin carrying one of the custom annotations, see AnnotationIndex.
+ * 
+ * @author alexander
+ *
+ */
+public class IndexedElement {
+	
+	private final String pluginId;
+	private final Class<?> declaringClass;
+	private final AnnotatedElement element;
+	private final ElementType kind;
+	private final Annotation annotation;
+	private final Map<String, Object> attributes;
+	
+	IndexedElement(String pluginId, Class<?> declaringClass, AnnotatedElement element, ElementType kind, Annotation annotation, Map<String, Object> attributes) {
+		this.pluginId = pluginId;
+		this.declaringClass = declaringClass;
+		this.element = element;
+		this.kind = kind;
+		this.annotation = annotation;
+		this.attributes = attributes;
+	}
+	
+	/**
+	 * @return the id of the plugin whose jar contains the element
+	 */
+	public String getPluginId() {
+		return this.pluginId;
+	}
+	
+	/**
+	 * @return the annotated class, or the class declaring the annotated method or field
+	 */
+	public Class<?> getDeclaringClass() {
+		return this.declaringClass;
+	}
+	
+	/**
+	 * @return the annotated Class, Method or Field
+	 */
+	public AnnotatedElement getElement() {
+		return this.element;
+	}
+	
+	/**
+	 * @return TYPE, METHOD or FIELD
+	 */
+	public ElementType getKind() {
+		return this.kind;
+	}
+	
+	/**
+	 * @return the method, or null if the element is no method
+	 */
+	public Method getMethod() {
+		return this.kind == ElementType.METHOD ? (Method) this.element : null;
+	}
+	
+	/**
+	 * @return the field, or null if the element is no field
+	 */
+	public Field getField() {
+		return this.kind == ElementType.FIELD ? (Field) this.element : null;
+	}
+	
+	public Annotation getAnnotation() {
+		return this.annotation;
+	}
+	
+	/**
+	 * @param type - the type of the annotation this element was found for
+	 * @return the annotation
+	 * @throws ClassCastException if the element was indexed for another annotation
+	 */
+	public <A extends Annotation> A getAnnotation(Class<A> type) {
+		return type.cast(this.annotation);
+	}
+	
+	/**
+	 * @return a read-only map from attribute name to value, including attributes left at their default
+	 */
+	public Map<String, Object> getAttributes() {
+		return this.attributes;
+	}
+	
+	/**
+	 * @param name
+	 * @return the value of the attribute, or null if the annotation has no such attribute
+	 */
+	public Object getAttribute(String name) {
+		return this.attributes.get(name);
+	}
+	
+	@Override
+	public String toString() {
+		return "@" + this.annotation.annotationType().getSimpleName() + " " + this.element.toString() + " (" + this.pluginId + ")";
+	}
+}
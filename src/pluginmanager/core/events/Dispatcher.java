@@ -0,0 +1,22 @@
+package pluginmanager.core.events;
+
+import pluginmanager.api.event.Event;
+import pluginmanager.api.exceptions.StoredException;
+
+/**
+ * Calls every eventHandler of one event type and routing key in order.
+ * 
+ * @author alexander
+ *
+ */
+public interface Dispatcher {
+	
+	/**
+	 * Calls every eventHandler, the remaining handlers are still called after one threw an exception. The StoredException is
+	 * only created once a handler fails, so dispatches without failures allocate nothing for it.
+	 * 
+	 * @param event
+	 * @return the exceptions thrown by the eventHandlers, or null if none of them threw one
+	 */
+	StoredException dispatch(Event event);
+}
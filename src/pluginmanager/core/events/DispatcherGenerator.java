@@ -0,0 +1,343 @@
+package pluginmanager.core.events;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import pluginmanager.api.event.Event;
+import pluginmanager.api.exceptions.StoredException;
+import pluginmanager.util.ConsoleHandler;
+import pluginmanager.util.RecordedEvents;
+
+/**
+ * Creates Dispatchers for a fixed list of eventHandlers.
+ *
+ * The generated dispatcher is a hidden class whose dispatch() method calls one constant MethodHandle per eventHandler in sequence.
+ * The handles are loaded from the class data of the hidden class, so the JIT sees them as constants and can inline the whole
+ * fan-out into the caller. Each handle already records exceptions of its handler and adds the handler to the event, so the
+ * generated code is a straight sequence of calls without any branches.
+ *
+ * If a dispatcher cannot be generated (e.g. too many handlers for one method), a dispatcher looping over the handlers is used.
+ * Hidden classes with class data need Java 16, which is why the library requires it.
+ *
+ * @author alexander
+ *
+ */
+public class DispatcherGenerator {
+
+	//one call is 9 bytes of bytecode, stay well below the 64k limit of a method
+	private static final int MAX_GENERATED_HANDLERS = 4096;
+
+	private static final MethodType STEP_TYPE = MethodType.methodType(StoredException.class, Event.class, StoredException.class);
+
+	private static final MethodHandle RECORD;
+	private static final MethodHandle HANDLED;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			RECORD = lookup.findStatic(DispatcherGenerator.class, "record", MethodType.methodType(StoredException.class, RegisteredHandler.class, Throwable.class, Event.class, StoredException.class));
+			HANDLED = lookup.findStatic(DispatcherGenerator.class, "handled", MethodType.methodType(StoredException.class, Method.class, StoredException.class, Event.class, StoredException.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * @param handlers - the eventHandlers in the order they are called
+	 * @return a generated dispatcher, or a looping dispatcher if generating one failed
+	 */
+	public static Dispatcher generate(RegisteredHandler[] handlers) {
+		if(handlers.length > MAX_GENERATED_HANDLERS) return loop(handlers);
+
+		try {
+			ArrayList<MethodHandle> steps = new ArrayList<MethodHandle>();
+			for(RegisteredHandler handler : handlers) {
+				steps.add(step(handler));
+			}
+
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClassWithClassData(classBytes(handlers.length), Collections.unmodifiableList(steps), true);
+
+			return (Dispatcher) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+		} catch (Throwable t) {
+			ConsoleHandler.println("Could not generate a dispatcher, falling back to a loop: " + t.toString());
+			return loop(handlers);
+		}
+	}
+
+	/**
+	 * @param handlers - the eventHandlers in the order they are called
+	 * @return a dispatcher calling the handlers in a loop
+	 */
+	public static Dispatcher loop(final RegisteredHandler[] handlers) {
+		return (event) -> {
+			StoredException exceptions = null;
+			for(RegisteredHandler handler : handlers) {
+				try {
+					handler.invoke(event);
+				} catch (InvocationTargetException e) {
+					ConsoleHandler.println("Error invoking eventHandler on " + handler.toString());
+					if(exceptions == null) exceptions = new StoredException();
+					exceptions.addException(e);
+				}
+				event.addHandler(handler.getMethod());
+			}
+			return exceptions;
+		};
+	}
+
+	/**
+	 * @param handlers - the eventHandlers in the order they are called
+	 * @return a dispatcher calling the handlers in a loop, recording a SlowHandler flight recorder event for each handler
+	 * which exceeds the configured threshold
+	 */
+	public static Dispatcher timed(final RegisteredHandler[] handlers) {
+		return (event) -> {
+			StoredException exceptions = null;
+			for(RegisteredHandler handler : handlers) {
+				RecordedEvents.SlowHandler recorded = new RecordedEvents.SlowHandler();
+				recorded.begin();
+				try {
+					handler.invoke(event);
+				} catch (InvocationTargetException e) {
+					ConsoleHandler.println("Error invoking eventHandler on " + handler.toString());
+					if(exceptions == null) exceptions = new StoredException();
+					exceptions.addException(e);
+					recorded.failed = true;
+				}
+				recorded.end();
+				if(recorded.shouldCommit()) {
+					recorded.eventType = event.getClass().getName();
+					recorded.handler = handler.toString();
+					recorded.plugin = handler.getOwner();
+					recorded.commit();
+				}
+				event.addHandler(handler.getMethod());
+			}
+			return exceptions;
+		};
+	}
+	
+	/**
+	 * Builds the handle for one handler: call it, record what it throws, then add it to the event, just like loop() does. The
+	 * handle takes the exceptions recorded so far (or null) and returns them, including the one of this handler.
+	 */
+	private static MethodHandle step(RegisteredHandler handler) {
+		MethodHandle pass = MethodHandles.dropArguments(MethodHandles.identity(StoredException.class), 0, Event.class);
+		//foldArguments calls the handler first, then returns the exceptions passed in
+		MethodHandle invoke = MethodHandles.foldArguments(pass, MethodHandles.dropArguments(handler.getInvoker(), 1, StoredException.class));
+		MethodHandle guarded = MethodHandles.catchException(invoke, Throwable.class, RECORD.bindTo(handler));
+
+		//guarded runs first, its result becomes the first argument of handled
+		return MethodHandles.foldArguments(MethodHandles.insertArguments(HANDLED, 0, handler.getMethod()), guarded).asType(STEP_TYPE);
+	}
+
+	private static StoredException record(RegisteredHandler handler, Throwable thrown, Event event, StoredException exceptions) {
+		ConsoleHandler.println("Error invoking eventHandler on " + handler.toString());
+		if(exceptions == null) exceptions = new StoredException();
+		exceptions.addException(new InvocationTargetException(thrown));
+		return exceptions;
+	}
+
+	private static StoredException handled(Method method, StoredException exceptions, Event event, StoredException previous) {
+		event.addHandler(method);
+		return exceptions;
+	}
+
+	/**
+	 * Writes the class file of:
+	 *
+	 * final class GeneratedDispatcher implements Dispatcher {
+	 *     public StoredException dispatch(Event event) {
+	 *         StoredException exceptions = null;
+	 *         exceptions = ((MethodHandle) classDataAt(0)).invokeExact(event, exceptions);
+	 *         ...
+	 *         exceptions = ((MethodHandle) classDataAt(count - 1)).invokeExact(event, exceptions);
+	 *         return exceptions;
+	 *     }
+	 * }
+	 *
+	 * The handles are loaded with ldc of a dynamic constant bootstrapped by MethodHandles:classDataAt().
+	 */
+	private static byte[] classBytes(int count) throws IOException {
+		ConstantPool pool = new ConstantPool();
+
+		int thisClass = pool.classRef("pluginmanager/core/events/GeneratedDispatcher");
+		int superClass = pool.classRef("java/lang/Object");
+		int dispatcher = pool.classRef("pluginmanager/core/events/Dispatcher");
+		int objectInit = pool.methodRef(superClass, "<init>", "()V");
+		String dispatchDescriptor = "(Lpluginmanager/api/event/Event;)Lpluginmanager/api/exceptions/StoredException;";
+		String stepDescriptor = "(Lpluginmanager/api/event/Event;Lpluginmanager/api/exceptions/StoredException;)Lpluginmanager/api/exceptions/StoredException;";
+		int invokeExact = pool.methodRef(pool.classRef("java/lang/invoke/MethodHandle"), "invokeExact", stepDescriptor);
+		int classDataAt = pool.methodHandle(6, pool.methodRef(pool.classRef("java/lang/invoke/MethodHandles"), "classDataAt",
+				"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;I)Ljava/lang/Object;"));
+		int handleType = pool.nameAndType("_", "Ljava/lang/invoke/MethodHandle;");
+
+		int[] handles = new int[count];
+		int[] indices = new int[count];
+		for(int i = 0; i < count; i++) {
+			indices[i] = pool.integer(i);
+			handles[i] = pool.dynamic(i, handleType);
+		}
+
+		int init = pool.utf8("<init>");
+		int initDescriptor = pool.utf8("()V");
+		int dispatch = pool.utf8("dispatch");
+		int dispatchType = pool.utf8(dispatchDescriptor);
+		int code = pool.utf8("Code");
+		int bootstrapMethods = pool.utf8("BootstrapMethods");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(60);
+		pool.write(out);
+		out.writeShort(0x0001 | 0x0010 | 0x0020); //public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(dispatcher);
+		out.writeShort(0); //fields
+
+		out.writeShort(2); //methods
+
+		//public <init>() { super(); }
+		out.writeShort(0x0001);
+		out.writeShort(init);
+		out.writeShort(initDescriptor);
+		out.writeShort(1);
+		out.writeShort(code);
+		out.writeInt(12 + 5);
+		out.writeShort(1); //max stack
+		out.writeShort(1); //max locals
+		out.writeInt(5);
+		out.writeByte(0x2A); //aload_0
+		out.writeByte(0xB7); //invokespecial
+		out.writeShort(objectInit);
+		out.writeByte(0xB1); //return
+		out.writeShort(0); //exception table
+		out.writeShort(0); //attributes
+
+		//public StoredException dispatch(Event)
+		out.writeShort(0x0001);
+		out.writeShort(dispatch);
+		out.writeShort(dispatchType);
+		out.writeShort(1);
+		out.writeShort(code);
+		int length = 2 + count * 9 + 2;
+		out.writeInt(12 + length);
+		out.writeShort(3);
+		out.writeShort(3);
+		out.writeInt(length);
+		out.writeByte(0x01); //aconst_null
+		out.writeByte(0x4D); //astore_2
+		for(int i = 0; i < count; i++) {
+			out.writeByte(0x13); //ldc_w
+			out.writeShort(handles[i]);
+			out.writeByte(0x2B); //aload_1
+			out.writeByte(0x2C); //aload_2
+			out.writeByte(0xB6); //invokevirtual
+			out.writeShort(invokeExact);
+			out.writeByte(0x4D); //astore_2
+		}
+		out.writeByte(0x2C); //aload_2
+		out.writeByte(0xB0); //areturn
+		out.writeShort(0);
+		out.writeShort(0);
+
+		//class attributes: one bootstrap method per handle, classDataAt(index)
+		out.writeShort(1);
+		out.writeShort(bootstrapMethods);
+		out.writeInt(2 + count * 6);
+		out.writeShort(count);
+		for(int i = 0; i < count; i++) {
+			out.writeShort(classDataAt);
+			out.writeShort(1);
+			out.writeShort(indices[i]);
+		}
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Collects the constant pool of the generated class, entries are deduplicated where it matters for the size.
+	 */
+	private static class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(this.bytes);
+		private final Map<String, Integer> utf8 = new HashMap<String, Integer>();
+		private int count = 1;
+
+		private int utf8(String value) throws IOException {
+			Integer known = this.utf8.get(value);
+			if(known != null) return known;
+
+			this.out.writeByte(1);
+			this.out.writeUTF(value);
+			this.utf8.put(value, this.count);
+			return this.count++;
+		}
+
+		private int classRef(String name) throws IOException {
+			int nameIndex = this.utf8(name);
+			this.out.writeByte(7);
+			this.out.writeShort(nameIndex);
+			return this.count++;
+		}
+
+		private int nameAndType(String name, String descriptor) throws IOException {
+			int nameIndex = this.utf8(name);
+			int descriptorIndex = this.utf8(descriptor);
+			this.out.writeByte(12);
+			this.out.writeShort(nameIndex);
+			this.out.writeShort(descriptorIndex);
+			return this.count++;
+		}
+
+		private int methodRef(int classIndex, String name, String descriptor) throws IOException {
+			int nameAndType = this.nameAndType(name, descriptor);
+			this.out.writeByte(10);
+			this.out.writeShort(classIndex);
+			this.out.writeShort(nameAndType);
+			return this.count++;
+		}
+
+		private int methodHandle(int kind, int reference) throws IOException {
+			this.out.writeByte(15);
+			this.out.writeByte(kind);
+			this.out.writeShort(reference);
+			return this.count++;
+		}
+
+		private int integer(int value) throws IOException {
+			this.out.writeByte(3);
+			this.out.writeInt(value);
+			return this.count++;
+		}
+
+		private int dynamic(int bootstrapMethod, int nameAndType) throws IOException {
+			this.out.writeByte(17);
+			this.out.writeShort(bootstrapMethod);
+			this.out.writeShort(nameAndType);
+			return this.count++;
+		}
+
+		private void write(DataOutputStream target) throws IOException {
+			this.out.flush();
+			target.writeShort(this.count);
+			this.bytes.writeTo(target);
+		}
+	}
+}
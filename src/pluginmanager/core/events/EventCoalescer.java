@@ -0,0 +1,223 @@
+package pluginmanager.core.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import pluginmanager.api.annotations.Coalesce;
+import pluginmanager.api.event.Event;
+import pluginmanager.api.event.PooledEvent;
+
+/**
+ * Holds back events of coalesced event types and merges events with the same type and coalescing key, so only the latest
+ * one is handed to the sink. Event types are coalesced if they are annotated with @Coalesce or were registered with setPolicy().
+ *
+ * Pooled events are retained while they are pending. Events replaced by a newer one are released by the coalescer, events leaving
+ * it through offer(), drain() or the sink still hold the reference of the coalescer, release() them once they were delivered.
+ *
+ * @author alexander
+ *
+ */
+public class EventCoalescer {
+
+	private static final Policy NONE = new Policy(0, 0);
+
+	private final Map<Class<?>, Policy> policies = new ConcurrentHashMap<Class<?>, Policy>();
+	private final Map<List<Object>, Pending> pending = new LinkedHashMap<List<Object>, Pending>();
+	private final Consumer<Event> sink;
+	private ScheduledThreadPoolExecutor timer;
+
+	/**
+	 * @param sink - receives the events once they are due, possibly from the timer thread, and has to release() them
+	 */
+	public EventCoalescer(Consumer<Event> sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Coalesces the event type regardless of its annotation.
+	 *
+	 * @param eventType
+	 * @param windowMillis - see Coalesce:window()
+	 * @param maxMerged - see Coalesce:maxMerged()
+	 * @throws IllegalArgumentException if the window is not positive or maxMerged is negative
+	 */
+	public void setPolicy(Class<? extends Event> eventType, long windowMillis, int maxMerged) {
+		this.policies.put(eventType, Policy.of(eventType, windowMillis, maxMerged));
+	}
+
+	/**
+	 * Stops coalescing the event type, events already pending are kept until they are due or flushed.
+	 *
+	 * @param eventType
+	 */
+	public void removePolicy(Class<? extends Event> eventType) {
+		this.policies.put(eventType, NONE);
+	}
+
+	/**
+	 * @param eventType
+	 * @return whether events of the type are held back
+	 * @throws IllegalArgumentException if the @Coalesce annotation of the type has no positive window
+	 */
+	public boolean isCoalesced(Class<?> eventType) {
+		return this.getPolicy(eventType) != NONE;
+	}
+
+	private Policy getPolicy(Class<?> eventType) {
+		Policy policy = this.policies.get(eventType);
+
+		if(policy == null) {
+			Coalesce annotation = eventType.getAnnotation(Coalesce.class);
+			policy = annotation == null ? NONE : Policy.of(eventType, annotation.window(), annotation.maxMerged());
+			this.policies.put(eventType, policy);
+		}
+
+		return policy;
+	}
+
+	/**
+	 * Merges the event into the pending event with the same type and key.
+	 *
+	 * @param event
+	 * @return the event if it has to be delivered right away because maxMerged was reached, otherwise null
+	 */
+	public Event offer(Event event) {
+		Policy policy = this.getPolicy(event.getClass());
+		List<Object> key = Arrays.asList(event.getClass(), event.getCoalescingKey());
+
+		if(event instanceof PooledEvent) ((PooledEvent) event).retain();
+
+		synchronized(this.pending) {
+			Pending current = this.pending.get(key);
+
+			if(current == null) {
+				current = new Pending(event);
+				this.pending.put(key, current);
+				this.schedule(key, current, policy.window);
+			} else {
+				release(current.event);
+				current.event = event;
+				current.merged++;
+			}
+
+			if(policy.maxMerged > 0 && current.merged >= policy.maxMerged) {
+				this.pending.remove(key);
+				return current.event;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes all pending events.
+	 *
+	 * @return the pending events in the order their keys first became pending
+	 */
+	public Event[] drain() {
+		ArrayList<Event> events = new ArrayList<Event>();
+
+		synchronized(this.pending) {
+			for(Pending current : this.pending.values()) {
+				events.add(current.event);
+			}
+			this.pending.clear();
+		}
+
+		return events.toArray(new Event[events.size()]);
+	}
+
+	/**
+	 * Stops the timer thread. Pending events are dropped, drain() them first. An event the timer is delivering right now is
+	 * delivered completely unless the timeout passes first.
+	 *
+	 * @param timeoutMillis
+	 * @return true if the timer thread stopped in time
+	 * @throws InterruptedException
+	 */
+	public boolean shutdown(long timeoutMillis) throws InterruptedException {
+		ScheduledThreadPoolExecutor timer;
+
+		synchronized(this.pending) {
+			for(Pending current : this.pending.values()) {
+				release(current.event);
+			}
+			this.pending.clear();
+			timer = this.timer;
+			this.timer = null;
+		}
+
+		if(timer == null) return true;
+
+		timer.shutdown();
+		return timer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Drops the reference the coalescer holds on a pooled event, does nothing for other events.
+	 *
+	 * @param event - an event which left the coalescer
+	 */
+	public static void release(Event event) {
+		if(event instanceof PooledEvent) ((PooledEvent) event).release();
+	}
+
+	private void schedule(final List<Object> key, final Pending scheduled, long windowMillis) {
+		if(this.timer == null) {
+			this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+				Thread thread = new Thread(runnable, "PluginManager-EventCoalescer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			//windows which did not end yet hold no events after drain(), don't wait for them on shutdown
+			this.timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		}
+
+		this.timer.schedule(() -> {
+			Event due = null;
+
+			synchronized(this.pending) {
+				//the event might have been delivered already and the key become pending again since
+				if(this.pending.get(key) == scheduled) {
+					this.pending.remove(key);
+					due = scheduled.event;
+				}
+			}
+
+			if(due != null) this.sink.accept(due);
+		}, windowMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static class Policy {
+		private final long window;
+		private final int maxMerged;
+
+		private Policy(long window, int maxMerged) {
+			this.window = window;
+			this.maxMerged = maxMerged;
+		}
+
+		//without a window the last event of a burst would only leave on a flush, so such policies are rejected
+		private static Policy of(Class<?> eventType, long window, int maxMerged) {
+			if(window <= 0) throw new IllegalArgumentException("The coalescing window of " + eventType.getName() + " has to be positive, was " + window);
+			if(maxMerged < 0) throw new IllegalArgumentException("maxMerged of " + eventType.getName() + " can't be negative, was " + maxMerged);
+			return new Policy(window, maxMerged);
+		}
+	}
+
+	private static class Pending {
+		private Event event;
+		private int merged = 1;
+
+		private Pending(Event event) {
+			this.event = event;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package pluginmanager.core.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The eventHandlers of one event type, indexed by routing key. The handlers for each key are resolved when the index is built,
+ * so finding the handlers of an event is a single map lookup and handlers subscribed to other keys are never looked at.
+ *
+ * @author alexander
+ *
+ */
+public class HandlerIndex {
+
+	private final RegisteredHandler[] unkeyed;
+	private final Map<String, RegisteredHandler[]> keyed = new HashMap<String, RegisteredHandler[]>();
+	private final Dispatcher unkeyedDispatcher;
+	private final Map<String, Dispatcher> keyedDispatchers = new HashMap<String, Dispatcher>();
+	//dispatchers for events sent to a single plugin, built on first use per routing key and plugin
+	private final Map<List<String>, Dispatcher> ownerDispatchers = new ConcurrentHashMap<List<String>, Dispatcher>();
+	private final boolean generate;
+	private final boolean parallel;
+
+	public HandlerIndex(List<RegisteredHandler> handlers) {
+		this(handlers, false);
+	}
+
+	public HandlerIndex(List<RegisteredHandler> handlers, boolean generate) {
+		this(handlers, generate, false);
+	}
+
+	/**
+	 * @param handlers - the eventHandlers of the event type in the order they are called
+	 * @param generate - generate a dispatcher class per routing key (see DispatcherGenerator) instead of looping over the handlers
+	 * @param parallel - call the handlers in parallel (see ParallelDispatcher) wherever at least two of them can run at once
+	 */
+	public HandlerIndex(List<RegisteredHandler> handlers, boolean generate, boolean parallel) {
+		this.generate = generate;
+		this.parallel = parallel;
+		
+		ArrayList<RegisteredHandler> unkeyed = new ArrayList<RegisteredHandler>();
+		LinkedHashSet<String> keys = new LinkedHashSet<String>();
+
+		for(RegisteredHandler handler : handlers) {
+			if(handler.getKey() == null) {
+				unkeyed.add(handler);
+			} else {
+				keys.add(handler.getKey());
+			}
+		}
+
+		//handlers without a key receive keyed events as well, keep the registration order for every key
+		for(String key : keys) {
+			ArrayList<RegisteredHandler> forKey = new ArrayList<RegisteredHandler>();
+			for(RegisteredHandler handler : handlers) {
+				if(handler.getKey() == null || handler.getKey().equals(key)) forKey.add(handler);
+			}
+			this.keyed.put(key, forKey.toArray(new RegisteredHandler[forKey.size()]));
+		}
+
+		this.unkeyed = unkeyed.toArray(new RegisteredHandler[unkeyed.size()]);
+
+		this.unkeyedDispatcher = this.createDispatcher(this.unkeyed);
+		for(Map.Entry<String, RegisteredHandler[]> entry : this.keyed.entrySet()) {
+			this.keyedDispatchers.put(entry.getKey(), this.createDispatcher(entry.getValue()));
+		}
+	}
+
+	private Dispatcher createDispatcher(RegisteredHandler[] handlers) {
+		if(this.parallel && ParallelDispatcher.isWorthwhile(handlers)) return new ParallelDispatcher(handlers);
+
+		return this.generate ? DispatcherGenerator.generate(handlers) : DispatcherGenerator.loop(handlers);
+	}
+
+	/**
+	 * @return true if the index was built with parallel dispatchers
+	 */
+	public boolean isParallel() {
+		return this.parallel;
+	}
+
+	/**
+	 * Gets the eventHandlers receiving events with the routing key. The array is shared, do not modify it.
+	 *
+	 * @param key - the routing key of the event, or null
+	 * @return the eventHandlers in the order they are called
+	 */
+	public RegisteredHandler[] get(String key) {
+		if(key == null) return this.unkeyed;
+
+		RegisteredHandler[] handlers = this.keyed.get(key);
+		return handlers == null ? this.unkeyed : handlers;
+	}
+
+	/**
+	 * Gets the dispatcher calling the eventHandlers receiving events with the routing key.
+	 *
+	 * @param key - the routing key of the event, or null
+	 * @return the dispatcher
+	 */
+	public Dispatcher getDispatcher(String key) {
+		if(key == null) return this.unkeyedDispatcher;
+
+		Dispatcher dispatcher = this.keyedDispatchers.get(key);
+		return dispatcher == null ? this.unkeyedDispatcher : dispatcher;
+	}
+
+	/**
+	 * Gets the eventHandlers of one plugin receiving events with the routing key.
+	 *
+	 * @param key - the routing key of the event, or null
+	 * @param owner - the id of the plugin
+	 * @return the eventHandlers of the plugin in the order they are called
+	 */
+	public RegisteredHandler[] get(String key, String owner) {
+		ArrayList<RegisteredHandler> owned = new ArrayList<RegisteredHandler>();
+
+		for(RegisteredHandler handler : this.get(key)) {
+			if(owner.equals(handler.getOwner())) owned.add(handler);
+		}
+
+		return owned.toArray(new RegisteredHandler[owned.size()]);
+	}
+
+	/**
+	 * Gets the dispatcher calling only the eventHandlers of one plugin receiving events with the routing key. It is built like
+	 * the dispatchers of getDispatcher(String).
+	 *
+	 * @param key - the routing key of the event, or null
+	 * @param owner - the id of the plugin
+	 * @return the dispatcher
+	 */
+	public Dispatcher getDispatcher(String key, String owner) {
+		//keys without handlers of their own share the dispatcher of unkeyed events, so unknown keys can't grow the map
+		String resolved = key != null && this.keyed.containsKey(key) ? key : null;
+		List<String> id = Arrays.asList(resolved, owner);
+
+		Dispatcher dispatcher = this.ownerDispatchers.get(id);
+		if(dispatcher == null) {
+			dispatcher = this.createDispatcher(this.get(resolved, owner));
+			Dispatcher raced = this.ownerDispatchers.putIfAbsent(id, dispatcher);
+			if(raced != null) dispatcher = raced;
+		}
+
+		return dispatcher;
+	}
+}
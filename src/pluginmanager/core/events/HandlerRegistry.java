@@ -0,0 +1,255 @@
+package pluginmanager.core.events;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pluginmanager.api.event.Event;
+
+/**
+ * The eventHandlers of all event types of a PluginManager, kept in flat tables. Event types and plugin ids are interned to ints
+ * once, every event type then owns one handler array, one bitset of the plugins having eventHandlers for it and its routing index,
+ * all found at the index of the event type.
+ *
+ * The tables are replaced instead of modified, so readers never need a lock and the accessors hand out read-only views of the
+ * tables instead of copies. Changes are synchronized.
+ *
+ * @author alexander
+ *
+ */
+public class HandlerRegistry {
+
+	private static final RegisteredHandler[] NO_HANDLERS = new RegisteredHandler[0];
+
+	private final Map<Class<?>, Integer> typeIds = new ConcurrentHashMap<Class<?>, Integer>();
+	private final Map<String, Integer> pluginIds = new HashMap<String, Integer>();
+
+	//indexed by the id of the event type, grown before a new id is published
+	private volatile Class<?>[] types = new Class<?>[0];
+	private volatile RegisteredHandler[][] handlers = new RegisteredHandler[0][];
+	private volatile BitSet[] members = new BitSet[0];
+	private volatile HandlerIndex[] indices = new HandlerIndex[0];
+
+	/**
+	 * Registers the event type, registering it again does nothing.
+	 *
+	 * @param type
+	 * @return the id of the event type
+	 */
+	public synchronized int register(Class<? extends Event> type) {
+		Integer known = this.typeIds.get(type);
+		if(known != null) return known;
+
+		int id = this.types.length;
+
+		Class<?>[] types = Arrays.copyOf(this.types, id + 1);
+		types[id] = type;
+		RegisteredHandler[][] handlers = Arrays.copyOf(this.handlers, id + 1);
+		handlers[id] = NO_HANDLERS;
+		BitSet[] members = Arrays.copyOf(this.members, id + 1);
+		members[id] = new BitSet();
+
+		this.handlers = handlers;
+		this.members = members;
+		this.indices = Arrays.copyOf(this.indices, id + 1);
+		this.types = types;
+		this.typeIds.put(type, id);
+
+		return id;
+	}
+
+	/**
+	 * @param type
+	 * @return the id of the event type, or -1 if it is not registered
+	 */
+	public int getTypeId(Class<?> type) {
+		Integer id = this.typeIds.get(type);
+		return id == null ? -1 : id;
+	}
+
+	public boolean isRegistered(Class<?> type) {
+		return this.typeIds.containsKey(type);
+	}
+
+	/**
+	 * @return a read-only view of the registered event types, in the order they were registered
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Class<? extends Event>> getTypes() {
+		return Collections.unmodifiableList(Arrays.asList((Class<? extends Event>[]) this.types));
+	}
+
+	private int internPlugin(String pluginId) {
+		Integer id = this.pluginIds.get(pluginId);
+		if(id != null) return id;
+
+		id = this.pluginIds.size();
+		this.pluginIds.put(pluginId, id);
+		return id;
+	}
+
+	/**
+	 * Appends eventHandlers to the event type. The routing index is not rebuilt, call index() afterwards.
+	 *
+	 * @param type - a registered event type
+	 * @param added
+	 */
+	public synchronized void add(Class<?> type, List<RegisteredHandler> added) {
+		int id = this.requireId(type);
+		if(added.isEmpty()) return;
+
+		RegisteredHandler[] current = this.handlers[id];
+		RegisteredHandler[] grown = Arrays.copyOf(current, current.length + added.size());
+		BitSet members = (BitSet) this.members[id].clone();
+
+		for(int i = 0; i < added.size(); i++) {
+			RegisteredHandler handler = added.get(i);
+			grown[current.length + i] = handler;
+			if(handler.getOwner() != null) members.set(this.internPlugin(handler.getOwner()));
+		}
+
+		this.replace(id, grown, members);
+	}
+
+	/**
+	 * Removes all eventHandlers of the event type, including its routing index.
+	 *
+	 * @param type - a registered event type
+	 */
+	public synchronized void clear(Class<?> type) {
+		int id = this.requireId(type);
+
+		this.replace(id, NO_HANDLERS, new BitSet());
+
+		HandlerIndex[] indices = this.indices.clone();
+		indices[id] = null;
+		this.indices = indices;
+	}
+
+	/**
+	 * Removes the eventHandlers of all event types, the event types stay registered.
+	 */
+	public synchronized void clearAll() {
+		for(Class<?> type : this.types) {
+			this.clear(type);
+		}
+	}
+
+	private void replace(int id, RegisteredHandler[] handlers, BitSet members) {
+		RegisteredHandler[][] allHandlers = this.handlers.clone();
+		allHandlers[id] = handlers;
+		BitSet[] allMembers = this.members.clone();
+		allMembers[id] = members;
+
+		this.handlers = allHandlers;
+		this.members = allMembers;
+	}
+
+	/**
+	 * @param type
+	 * @param method
+	 * @return true if the method is registered as eventHandler of the event type
+	 */
+	public boolean contains(Class<?> type, Method method) {
+		int id = this.getTypeId(type);
+		if(id == -1) return false;
+
+		for(RegisteredHandler handler : this.handlers[id]) {
+			if(handler.getMethod().equals(method)) return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param type
+	 * @return a read-only view of the eventHandlers of the event type in the order they are called, empty if the type is not
+	 * registered
+	 */
+	public List<RegisteredHandler> getHandlers(Class<?> type) {
+		int id = this.getTypeId(type);
+		if(id == -1) return Collections.emptyList();
+
+		return Collections.unmodifiableList(Arrays.asList(this.handlers[id]));
+	}
+
+	/**
+	 * @param type
+	 * @param pluginId
+	 * @return true if the plugin has eventHandlers for the event type
+	 */
+	public boolean hasHandlers(Class<?> type, String pluginId) {
+		int id = this.getTypeId(type);
+		if(id == -1) return false;
+
+		Integer plugin;
+		synchronized(this) {
+			plugin = this.pluginIds.get(pluginId);
+		}
+
+		return plugin != null && this.members[id].get(plugin);
+	}
+
+	/**
+	 * @return the number of eventHandlers of all event types
+	 */
+	public int size() {
+		int size = 0;
+		for(RegisteredHandler[] handlers : this.handlers) {
+			size += handlers.length;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Rebuilds the routing index of the event type, call this whenever its eventHandlers changed.
+	 *
+	 * @param type - a registered event type
+	 * @param generate - see HandlerIndex
+	 * @param parallel - see HandlerIndex
+	 */
+	public synchronized void index(Class<?> type, boolean generate, boolean parallel) {
+		int id = this.requireId(type);
+
+		HandlerIndex[] indices = this.indices.clone();
+		indices[id] = new HandlerIndex(Arrays.asList(this.handlers[id]), generate, parallel);
+		this.indices = indices;
+	}
+
+	/**
+	 * Rebuilds the routing index of every event type which has one, each type keeps dispatching in parallel or not.
+	 *
+	 * @param generate - see HandlerIndex
+	 */
+	public synchronized void reindex(boolean generate) {
+		HandlerIndex[] indices = this.indices.clone();
+
+		for(int id = 0; id < indices.length; id++) {
+			if(indices[id] != null) indices[id] = new HandlerIndex(Arrays.asList(this.handlers[id]), generate, indices[id].isParallel());
+		}
+
+		this.indices = indices;
+	}
+
+	/**
+	 * @param type
+	 * @return the routing index of the event type, or null if the type is not registered or was not indexed yet
+	 */
+	public HandlerIndex getIndex(Class<?> type) {
+		int id = this.getTypeId(type);
+		return id == -1 ? null : this.indices[id];
+	}
+
+	private int requireId(Class<?> type) {
+		int id = this.getTypeId(type);
+		if(id == -1) throw new IllegalArgumentException("The event type " + type.getName() + " is not registered");
+
+		return id;
+	}
+}
@@ -0,0 +1,153 @@
+package pluginmanager.core.events;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import pluginmanager.api.event.Event;
+import pluginmanager.api.exceptions.StoredException;
+import pluginmanager.util.ConsoleHandler;
+
+/**
+ * Calls the eventHandlers of an event in parallel on the common fork-join pool (see @Parallel). The handlers are split in halves
+ * until every task calls one handler, the ordered handlers form one more task calling them one after another. The dispatching
+ * thread computes its share of the tasks and returns once all tasks are done.
+ *
+ * Handlers are added to the event and their exceptions are recorded after all of them returned, in the order of the handlers,
+ * so the result is the same as for sequential dispatch.
+ *
+ * @author alexander
+ *
+ */
+public class ParallelDispatcher implements Dispatcher {
+
+	private final RegisteredHandler[] handlers;
+	//positions of the handlers in the handler array
+	private final int[] independent;
+	private final int[] ordered;
+
+	/**
+	 * @param handlers - the eventHandlers in the order they are called sequentially
+	 */
+	public ParallelDispatcher(RegisteredHandler[] handlers) {
+		ArrayList<Integer> independent = new ArrayList<Integer>();
+		ArrayList<Integer> ordered = new ArrayList<Integer>();
+
+		for(int i = 0; i < handlers.length; i++) {
+			(handlers[i].isOrdered() ? ordered : independent).add(i);
+		}
+
+		this.handlers = handlers;
+		this.independent = toArray(independent);
+		this.ordered = toArray(ordered);
+	}
+
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] array = new int[list.size()];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * @param handlers
+	 * @return true if at least two of the handlers can run at the same time
+	 */
+	public static boolean isWorthwhile(RegisteredHandler[] handlers) {
+		int tasks = 0;
+		boolean ordered = false;
+
+		for(RegisteredHandler handler : handlers) {
+			if(handler.isOrdered()) {
+				ordered = true;
+			} else {
+				tasks++;
+			}
+		}
+
+		return tasks + (ordered ? 1 : 0) >= 2;
+	}
+
+	@Override
+	public StoredException dispatch(Event event) {
+		Throwable[] thrown = new Throwable[this.handlers.length];
+
+		RangeTask independent = new RangeTask(event, thrown, 0, this.independent.length);
+		if(this.ordered.length == 0) {
+			independent.invoke();
+		} else {
+			ForkJoinTask.invokeAll(independent, new OrderedTask(event, thrown));
+		}
+
+		StoredException exceptions = null;
+		for(int i = 0; i < this.handlers.length; i++) {
+			if(thrown[i] != null) {
+				ConsoleHandler.println("Error invoking eventHandler on " + this.handlers[i].toString());
+				if(exceptions == null) exceptions = new StoredException();
+				exceptions.addException(new InvocationTargetException(thrown[i]));
+			}
+			event.addHandler(this.handlers[i].getMethod());
+		}
+		return exceptions;
+	}
+
+	private void call(int position, Event event, Throwable[] thrown) {
+		try {
+			this.handlers[position].invoke(event);
+		} catch (InvocationTargetException e) {
+			thrown[position] = e.getCause();
+		}
+	}
+
+	/**
+	 * Calls the independent handlers from index from to index to.
+	 */
+	@SuppressWarnings("serial")
+	private class RangeTask extends RecursiveAction {
+		private final Event event;
+		private final Throwable[] thrown;
+		private final int from;
+		private final int to;
+
+		private RangeTask(Event event, Throwable[] thrown, int from, int to) {
+			this.event = event;
+			this.thrown = thrown;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(this.to - this.from <= 1) {
+				if(this.to > this.from) call(independent[this.from], this.event, this.thrown);
+				return;
+			}
+
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new RangeTask(this.event, this.thrown, this.from, middle), new RangeTask(this.event, this.thrown, middle, this.to));
+		}
+	}
+
+	/**
+	 * Calls the ordered handlers one after another.
+	 */
+	@SuppressWarnings("serial")
+	private class OrderedTask extends RecursiveAction {
+		private final Event event;
+		private final Throwable[] thrown;
+
+		private OrderedTask(Event event, Throwable[] thrown) {
+			this.event = event;
+			this.thrown = thrown;
+		}
+
+		@Override
+		protected void compute() {
+			for(int position : ordered) {
+				call(position, this.event, this.thrown);
+			}
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package pluginmanager.core.events;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.Callable;
+
+import pluginmanager.api.annotations.EventHandler;
+import pluginmanager.api.event.Event;
+import pluginmanager.api.event.PluginManagerEvent;
+
+/**
+ * An @EventHandler method which has been resolved once and bound to the object it is called on. Static handlers have no receiver,
+ * instance handlers are bound to the subscriber instance of their plugin, so dispatching is a single invocation without any lookup.
+ * Handlers of lazy plugins are bound when their first event is dispatched.
+ *
+ * @author alexander
+ *
+ */
+public class RegisteredHandler {
+
+	private static final MethodType DISPATCH_TYPE = MethodType.methodType(void.class, Event.class);
+
+	private static final MethodHandle LINK;
+
+	static {
+		try {
+			LINK = MethodHandles.lookup().findVirtual(RegisteredHandler.class, "link", DISPATCH_TYPE);
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Method method;
+	private volatile Object receiver;
+	private final String owner;
+	private final String key;
+	private final boolean ordered;
+	private final MethodHandle invoker;
+
+	//only set for handlers whose receiver is created on the first event
+	private final MutableCallSite site;
+	private final Callable<Object> activation;
+
+	public RegisteredHandler(Method method, Object receiver) throws IllegalAccessException, IllegalArgumentException {
+		this(method, receiver, null);
+	}
+
+	/**
+	 * @param method - the handler method
+	 * @param receiver - the object the method is invoked on, or null if the method is static
+	 * @param owner - the id of the plugin the handler belongs to, or null if it was not registered by a plugin
+	 * @throws IllegalAccessException if the method cannot be accessed
+	 * @throws IllegalArgumentException if the method is not static and no receiver was given
+	 */
+	public RegisteredHandler(Method method, Object receiver, String owner) throws IllegalAccessException, IllegalArgumentException {
+		this.method = method;
+		this.receiver = Modifier.isStatic(method.getModifiers()) ? null : receiver;
+		this.owner = owner;
+		this.key = resolveKey(method, owner);
+		this.ordered = isOrdered(method);
+		this.invoker = bind(method, receiver);
+		this.site = null;
+		this.activation = null;
+	}
+
+	/**
+	 * Creates a handler whose receiver is only created when the first event is dispatched to it. Until then the handler is linked
+	 * to a stub calling the activation, afterwards it is relinked to the bound method, so later events are as cheap as for any
+	 * other handler.
+	 *
+	 * @param method - the handler method, it must not be static
+	 * @param owner - the id of the plugin the handler belongs to
+	 * @param activation - activates the plugin and returns the object the method is invoked on, or null if the plugin cannot be
+	 * activated yet, the event is then not delivered to the handler
+	 * @throws IllegalAccessException if the method cannot be accessed
+	 */
+	public RegisteredHandler(Method method, String owner, Callable<Object> activation) throws IllegalAccessException {
+		if(Modifier.isStatic(method.getModifiers())) throw new IllegalArgumentException("The eventHandler " + method.toString() + " is static and needs no activation");
+
+		try {
+			method.setAccessible(true);
+		} catch (SecurityException e) {
+			//fall back to the regular access checks of the lookup
+		}
+		//fail now rather than on the first event if the method is not accessible
+		MethodHandles.lookup().unreflect(method);
+
+		this.method = method;
+		this.receiver = null;
+		this.owner = owner;
+		this.key = resolveKey(method, owner);
+		this.ordered = isOrdered(method);
+		this.activation = activation;
+		this.site = new MutableCallSite(LINK.bindTo(this));
+		this.invoker = this.site.dynamicInvoker();
+	}
+
+	private static MethodHandle bind(Method method, Object receiver) throws IllegalAccessException, IllegalArgumentException {
+		boolean isStatic = Modifier.isStatic(method.getModifiers());
+
+		if(!isStatic && receiver == null) throw new IllegalArgumentException("The eventHandler " + method.toString() + " is not static and has no instance to be called on");
+
+		try {
+			method.setAccessible(true);
+		} catch (SecurityException e) {
+			//fall back to the regular access checks of the lookup
+		}
+
+		MethodHandle handle = MethodHandles.lookup().unreflect(method);
+
+		if(!isStatic) handle = handle.bindTo(receiver);
+
+		return handle.asType(DISPATCH_TYPE);
+	}
+
+	/**
+	 * The target of the call site until the receiver exists.
+	 */
+	@SuppressWarnings("unused")
+	private void link(Event event) throws Throwable {
+		MethodHandle bound = null;
+
+		synchronized(this) {
+			if(this.receiver == null) {
+				Object created = this.activation.call();
+				if(created == null) return;
+
+				bound = bind(this.method, created);
+				this.receiver = created;
+				this.site.setTarget(bound);
+			} else {
+				bound = this.site.getTarget();
+			}
+		}
+
+		bound.invokeExact(event);
+	}
+
+	/**
+	 * @return true if the receiver of this handler is created on the first event and that event has not been dispatched yet
+	 */
+	public boolean isPending() {
+		return this.site != null && this.receiver == null;
+	}
+
+	private static String resolveKey(Method method, String owner) {
+		EventHandler annotation = method.getAnnotation(EventHandler.class);
+
+		//plugins only see their own shutdown unless they ask for another one
+		if((annotation == null || annotation.key().isEmpty()) && isShutdownHandler(method)) return owner;
+		if(annotation == null || annotation.key().isEmpty()) return null;
+		if(annotation.key().equals(EventHandler.OWN_PLUGIN)) return owner;
+
+		return annotation.key();
+	}
+
+	private static boolean isShutdownHandler(Method method) {
+		return method.getParameterCount() == 1 && method.getParameterTypes()[0] == PluginManagerEvent.ShutdownEvent.class;
+	}
+
+	private static boolean isOrdered(Method method) {
+		EventHandler annotation = method.getAnnotation(EventHandler.class);
+		return annotation != null && annotation.ordered();
+	}
+
+	/**
+	 * Calls the handler with the event.
+	 *
+	 * @param event
+	 * @throws InvocationTargetException if the handler threw an exception, in the same manner as Method:invoke()
+	 */
+	public void invoke(Event event) throws InvocationTargetException {
+		try {
+			this.invoker.invokeExact(event);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	/**
+	 * @return the bound handle, taking the event and returning nothing
+	 */
+	MethodHandle getInvoker() {
+		return this.invoker;
+	}
+
+	public Method getMethod() {
+		return this.method;
+	}
+
+	public Object getReceiver() {
+		return this.receiver;
+	}
+
+	/**
+	 * @return the id of the plugin the handler belongs to, or null if it was not registered by a plugin
+	 */
+	public String getOwner() {
+		return this.owner;
+	}
+
+	/**
+	 * @return the routing key the handler is subscribed to, or null if it receives all events of its type. ShutdownEvent handlers
+	 * of a plugin without a key are subscribed to the id of their plugin.
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 * @return true if the handler depends on the order of the handlers and may not be called in parallel
+	 */
+	public boolean isOrdered() {
+		return this.ordered;
+	}
+
+	@Override
+	public String toString() {
+		return this.method.toString();
+	}
+}
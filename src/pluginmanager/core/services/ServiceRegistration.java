@@ -0,0 +1,84 @@
+package pluginmanager.core.services;
+
+import java.util.concurrent.Callable;
+
+/**
+ * One implementation of a service type published in a ServiceRegistry.
+ * 
+ * @author alexander
+ *
+ */
+public class ServiceRegistration<T> {
+	
+	private final Class<T> type;
+	private final String pluginId;
+	private final int ranking;
+	private final long sequence;
+	private final Callable<? extends T> factory;
+	private volatile T service;
+	private volatile boolean registered = true;
+	
+	ServiceRegistration(Class<T> type, T service, Callable<? extends T> factory, String pluginId, int ranking, long sequence) {
+		this.type = type;
+		this.service = service;
+		this.factory = factory;
+		this.pluginId = pluginId;
+		this.ranking = ranking;
+		this.sequence = sequence;
+	}
+	
+	public Class<T> getType() {
+		return this.type;
+	}
+	
+	/**
+	 * @return the id of the plugin which published the service, or null if it was published by the application
+	 */
+	public String getPluginId() {
+		return this.pluginId;
+	}
+	
+	public int getRanking() {
+		return this.ranking;
+	}
+	
+	long getSequence() {
+		return this.sequence;
+	}
+	
+	public boolean isRegistered() {
+		return this.registered;
+	}
+	
+	void unregistered() {
+		this.registered = false;
+	}
+	
+	/**
+	 * Gets the implementation, creating it on the first call if the service was published with a factory.
+	 * 
+	 * @return the implementation
+	 * @throws IllegalStateException if the implementation could not be created
+	 */
+	public T getService() {
+		T service = this.service;
+		if(service != null) return service;
+		
+		synchronized(this) {
+			if(this.service == null) {
+				try {
+					this.service = this.type.cast(this.factory.call());
+				} catch (Exception e) {
+					throw new IllegalStateException("The service " + this.type.getName() + " of " + this.pluginId + " could not be created", e);
+				}
+			}
+			
+			return this.service;
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return this.type.getName() + " of " + this.pluginId + " (ranking " + this.ranking + ")";
+	}
+}
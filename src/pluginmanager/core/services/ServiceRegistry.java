@@ -0,0 +1,177 @@
+package pluginmanager.core.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Services published by plugins (see @Service) or the application, looked up by the type they were published as. Plugins can
+ * hold on to the implementations they looked up and call them directly instead of sending events to each other.
+ * 
+ * Lookups go through a cache of the registrations of each type sorted by ranking, highest first, and in the order they were
+ * published if the ranking is equal. Reading the cache takes no lock, publishing or withdrawing a service replaces the cache.
+ * 
+ * @author alexander
+ *
+ */
+public class ServiceRegistry {
+	
+	private static final Comparator<ServiceRegistration<?>> RANKED = new Comparator<ServiceRegistration<?>>() {
+		@Override
+		public int compare(ServiceRegistration<?> a, ServiceRegistration<?> b) {
+			if(a.getRanking() != b.getRanking()) return Integer.compare(b.getRanking(), a.getRanking());
+			return Long.compare(a.getSequence(), b.getSequence());
+		}
+	};
+	
+	private static final ServiceRegistration<?>[] NONE = new ServiceRegistration<?>[0];
+	
+	private volatile ServiceRegistration<?>[] registrations = NONE;
+	private volatile Map<Class<?>, ServiceRegistration<?>[]> cache = new ConcurrentHashMap<Class<?>, ServiceRegistration<?>[]>();
+	private long sequence = 0;
+	
+	/**
+	 * Publishes an implementation of a service type.
+	 * 
+	 * @param type - the type consumers look the service up by
+	 * @param service - the implementation
+	 * @param pluginId - the plugin publishing the service, or null for the application
+	 * @param ranking - lookups prefer services with a higher ranking
+	 * @return the registration, pass it to unregister() to withdraw the service
+	 * @throws IllegalArgumentException if the service is no instance of the type
+	 */
+	public <T> ServiceRegistration<T> register(Class<T> type, T service, String pluginId, int ranking) {
+		if(!type.isInstance(service)) throw new IllegalArgumentException(String.valueOf(service) + " does not implement " + type.getName());
+		
+		synchronized(this) {
+			return this.add(new ServiceRegistration<T>(type, service, null, pluginId, ranking, this.sequence++));
+		}
+	}
+	
+	/**
+	 * Publishes a service type whose implementation is created on the first lookup.
+	 * 
+	 * @param type - the type consumers look the service up by
+	 * @param factory - creates the implementation, called at most once
+	 * @param pluginId - the plugin publishing the service, or null for the application
+	 * @param ranking - lookups prefer services with a higher ranking
+	 * @return the registration, pass it to unregister() to withdraw the service
+	 */
+	public synchronized <T> ServiceRegistration<T> registerFactory(Class<T> type, Callable<? extends T> factory, String pluginId, int ranking) {
+		return this.add(new ServiceRegistration<T>(type, null, factory, pluginId, ranking, this.sequence++));
+	}
+	
+	private <T> ServiceRegistration<T> add(ServiceRegistration<T> registration) {
+		ServiceRegistration<?>[] grown = Arrays.copyOf(this.registrations, this.registrations.length + 1);
+		grown[grown.length - 1] = registration;
+		this.replace(grown);
+		
+		return registration;
+	}
+	
+	/**
+	 * Withdraws a service, consumers holding the implementation may still call it.
+	 * 
+	 * @param registration
+	 */
+	public synchronized void unregister(ServiceRegistration<?> registration) {
+		ArrayList<ServiceRegistration<?>> kept = new ArrayList<ServiceRegistration<?>>(Arrays.asList(this.registrations));
+		if(kept.remove(registration)) {
+			registration.unregistered();
+			this.replace(kept.toArray(new ServiceRegistration<?>[kept.size()]));
+		}
+	}
+	
+	/**
+	 * Withdraws all services of a plugin.
+	 * 
+	 * @param pluginId
+	 */
+	public synchronized void unregisterAll(String pluginId) {
+		ArrayList<ServiceRegistration<?>> kept = new ArrayList<ServiceRegistration<?>>();
+		
+		for(ServiceRegistration<?> registration : this.registrations) {
+			if(pluginId.equals(registration.getPluginId())) {
+				registration.unregistered();
+			} else {
+				kept.add(registration);
+			}
+		}
+		
+		if(kept.size() != this.registrations.length) this.replace(kept.toArray(new ServiceRegistration<?>[kept.size()]));
+	}
+	
+	/**
+	 * Withdraws all services.
+	 */
+	public synchronized void clear() {
+		for(ServiceRegistration<?> registration : this.registrations) {
+			registration.unregistered();
+		}
+		
+		this.replace(NONE);
+	}
+	
+	private void replace(ServiceRegistration<?>[] registrations) {
+		//lookups racing with this fill the old cache, the new one is only filled from the new registrations
+		this.registrations = registrations;
+		this.cache = new ConcurrentHashMap<Class<?>, ServiceRegistration<?>[]>();
+	}
+	
+	private ServiceRegistration<?>[] lookup(Class<?> type) {
+		Map<Class<?>, ServiceRegistration<?>[]> cache = this.cache;
+		
+		ServiceRegistration<?>[] ranked = cache.get(type);
+		if(ranked != null) return ranked;
+		
+		ArrayList<ServiceRegistration<?>> matching = new ArrayList<ServiceRegistration<?>>();
+		for(ServiceRegistration<?> registration : this.registrations) {
+			if(registration.getType() == type) matching.add(registration);
+		}
+		Collections.sort(matching, RANKED);
+		
+		ranked = matching.isEmpty() ? NONE : matching.toArray(new ServiceRegistration<?>[matching.size()]);
+		cache.put(type, ranked);
+		return ranked;
+	}
+	
+	/**
+	 * @param type
+	 * @return the implementation with the highest ranking, or null if no service of the type is published
+	 * @throws IllegalStateException if the implementation could not be created
+	 */
+	public <T> T getService(Class<T> type) {
+		ServiceRegistration<?>[] ranked = this.lookup(type);
+		return ranked.length == 0 ? null : type.cast(ranked[0].getService());
+	}
+	
+	/**
+	 * @param type
+	 * @return the implementations of the type, highest ranking first
+	 * @throws IllegalStateException if an implementation could not be created
+	 */
+	public <T> List<T> getServices(Class<T> type) {
+		ServiceRegistration<?>[] ranked = this.lookup(type);
+		
+		ArrayList<T> services = new ArrayList<T>(ranked.length);
+		for(ServiceRegistration<?> registration : ranked) {
+			services.add(type.cast(registration.getService()));
+		}
+		
+		return services;
+	}
+	
+	/**
+	 * @param type
+	 * @return a read-only view of the registrations of the type, highest ranking first
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<ServiceRegistration<T>> getRegistrations(Class<T> type) {
+		return Collections.unmodifiableList(Arrays.asList((ServiceRegistration<T>[]) this.lookup(type)));
+	}
+}
@@ -47,22 +47,22 @@ public class JarDiscoverer {
 		
 		ConsoleHandler.println("Getting classes in jar " + jar.toString());
 		
-		JarFile file = null;
 		ArrayList<String> classes = new ArrayList<String>();
-		try {
-			file = new JarFile(jar);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 		
-		Enumeration<JarEntry> entries = file.entries();
-		while(entries.hasMoreElements()) {
-			JarEntry entry = entries.nextElement();
-			
-			if(!entry.isDirectory()) {
-				if(!entry.getName().endsWith(".class")) continue;
-				classes.add(entry.getName().replaceAll("/", "\\.").substring(0, entry.getName().replaceAll("/", "\\.").lastIndexOf('.')));
+		//close the jar again, otherwise every scanned jar keeps a file handle open until the JVM exits
+		try(JarFile file = new JarFile(jar)) {
+			Enumeration<JarEntry> entries = file.entries();
+			while(entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				
+				if(!entry.isDirectory()) {
+					if(!entry.getName().endsWith(".class")) continue;
+					classes.add(entry.getName().replaceAll("/", "\\.").substring(0, entry.getName().replaceAll("/", "\\.").lastIndexOf('.')));
+				}
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new String[0];
 		}
 		
 		ConsoleHandler.println("Found " + classes.size() + " classes to load in Jarfile " + jar.toString());
@@ -0,0 +1,258 @@
+package pluginmanager.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import pluginmanager.api.event.Event;
+import pluginmanager.api.event.EventSerializer;
+import pluginmanager.api.exceptions.StoredException;
+import pluginmanager.core.PluginManager;
+import pluginmanager.util.ConsoleHandler;
+
+/**
+ * An append-only journal of the events sent through a PluginManager, see PluginManager:setJournal(). The events are serialized
+ * by an EventSerializer and appended to memory-mapped segment files in the journal directory, a new segment is started when
+ * the current one is full.
+ * 
+ * Appending a record only copies it into the mapped segment, so it survives a crash of the JVM right away. A committer thread
+ * writes the records to disk every commit interval (group commit), so one disk write covers all events sent in the meantime
+ * instead of one write per event. commit() does the same on demand.
+ * 
+ * The journal is read with JournalReader and fed into a PluginManager with replay().
+ * 
+ * @author alexander
+ *
+ */
+public class EventJournal implements Closeable {
+	
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	public static final long DEFAULT_COMMIT_INTERVAL = 50;
+	
+	private final File directory;
+	private final EventSerializer serializer;
+	private final int segmentSize;
+	
+	//the clock of the records, nanoseconds since the epoch with the resolution of System.nanoTime()
+	private final long epochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+	private final long startNanos = System.nanoTime();
+	
+	private JournalSegment segment;
+	private long segmentIndex;
+	private int position;
+	private int committed;
+	private boolean closed = false;
+	
+	private final AtomicLong failed = new AtomicLong();
+	private final Thread committer;
+	
+	/**
+	 * Opens the journal with segments of DEFAULT_SEGMENT_SIZE bytes, committed every DEFAULT_COMMIT_INTERVAL milliseconds.
+	 * 
+	 * @param directory
+	 * @param serializer
+	 * @throws IOException
+	 */
+	public EventJournal(File directory, EventSerializer serializer) throws IOException {
+		this(directory, serializer, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_INTERVAL);
+	}
+	
+	/**
+	 * Opens the journal in the directory, records are appended after the records already in it.
+	 * 
+	 * @param directory - created if it does not exist
+	 * @param serializer - serializes the recorded events
+	 * @param segmentSize - the size of a segment file in bytes, which limits the size of a serialized event
+	 * @param commitIntervalMillis - the time between two writes of the records to disk
+	 * @throws IOException if the directory or the last segment cannot be opened
+	 */
+	public EventJournal(File directory, EventSerializer serializer, int segmentSize, long commitIntervalMillis) throws IOException {
+		if(segmentSize <= JournalSegment.HEADER) throw new IllegalArgumentException("Segments of " + segmentSize + " bytes cannot hold a record");
+		if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create the journal directory " + directory.toString());
+		
+		this.directory = directory;
+		this.serializer = serializer;
+		this.segmentSize = segmentSize;
+		
+		File[] files = JournalSegment.list(directory);
+		if(files.length == 0) {
+			this.segmentIndex = 0;
+			this.segment = JournalSegment.open(JournalSegment.file(directory, 0), segmentSize, true);
+			this.position = 0;
+		} else {
+			File last = files[files.length - 1];
+			this.segmentIndex = JournalSegment.index(last);
+			this.segment = JournalSegment.open(last, segmentSize, true);
+			this.position = this.segment.end();
+		}
+		this.committed = this.position;
+		
+		ConsoleHandler.println("Opened event journal " + directory.toString() + " at segment " + this.segmentIndex + ", position " + this.position);
+		
+		final long interval = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+		this.committer = new Thread(() -> {
+			while(!this.isClosed()) {
+				LockSupport.parkNanos(interval);
+				this.commit();
+			}
+		}, "PluginManager-EventJournal");
+		this.committer.setDaemon(true);
+		this.committer.start();
+	}
+	
+	/**
+	 * Appends the event. The event is serialized on the calling thread, so it may be changed or reused once this returns.
+	 * 
+	 * @param event
+	 * @throws IOException if the event cannot be serialized or is larger than a segment
+	 * @throws IllegalStateException if the journal was closed
+	 */
+	public void record(Event event) throws IOException {
+		long timestamp = this.epochNanos + (System.nanoTime() - this.startNanos);
+		byte[] payload = this.serializer.serialize(event);
+		
+		if(JournalSegment.HEADER + payload.length > this.segmentSize) {
+			throw new IOException("The event " + event.getClass().getName() + " takes " + payload.length + " bytes, more than a journal segment holds");
+		}
+		
+		synchronized(this) {
+			if(this.closed) throw new IllegalStateException("The journal " + this.directory.toString() + " was closed");
+			
+			if(this.position + JournalSegment.HEADER + payload.length > this.segment.capacity()) this.roll();
+			this.position = this.segment.write(this.position, timestamp, payload);
+		}
+	}
+	
+	/**
+	 * Like record(), but failures are counted (see getFailedRecords()) and printed instead of thrown, so recording never
+	 * interrupts sending the event. This includes runtime exceptions, e.g. of a serializer or of a full segment.
+	 * 
+	 * @param event
+	 */
+	public void recordQuietly(Event event) {
+		try {
+			this.record(event);
+		} catch (IOException | RuntimeException e) {
+			this.failed.incrementAndGet();
+			ConsoleHandler.println("Could not record event " + event.getClass().getName() + " in the journal: " + e.toString());
+		}
+	}
+	
+	/**
+	 * Commits the current segment and starts the next one. Called with the lock held.
+	 */
+	private void roll() throws IOException {
+		this.segment.force(this.committed, this.position);
+		
+		this.segmentIndex++;
+		this.segment = JournalSegment.open(JournalSegment.file(this.directory, this.segmentIndex), this.segmentSize, true);
+		this.position = 0;
+		this.committed = 0;
+	}
+	
+	/**
+	 * Writes all records appended so far to disk.
+	 */
+	public void commit() {
+		JournalSegment segment;
+		int from;
+		int to;
+		
+		synchronized(this) {
+			segment = this.segment;
+			from = this.committed;
+			to = this.position;
+			this.committed = to;
+		}
+		
+		//writing to disk happens outside of the lock, appending continues meanwhile
+		segment.force(from, to);
+	}
+	
+	/**
+	 * @return the number of events recordQuietly() could not record
+	 */
+	public long getFailedRecords() {
+		return this.failed.get();
+	}
+	
+	public File getDirectory() {
+		return this.directory;
+	}
+	
+	public synchronized boolean isClosed() {
+		return this.closed;
+	}
+	
+	/**
+	 * Commits the records and stops the committer thread, events recorded afterwards are rejected.
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			if(this.closed) return;
+			this.closed = true;
+		}
+		
+		LockSupport.unpark(this.committer);
+		this.commit();
+	}
+	
+	/**
+	 * Sends the events of a journal to a PluginManager, waiting between the events as long as they were apart when they were
+	 * recorded, divided by the speed.
+	 * 
+	 * @param directory - the directory of the journal
+	 * @param serializer - an instance of the serializer the journal was written with
+	 * @param pluginManager - an initialized PluginManager
+	 * @param speed - 1 to replay in real time, 2 for twice as fast and so on, 0 to send the events without waiting
+	 * @return the number of events sent
+	 * @throws IOException if a segment cannot be read
+	 * @throws StoredException if eventHandlers threw exceptions or events could not be deserialized, after all events were sent
+	 */
+	public static long replay(File directory, EventSerializer serializer, PluginManager pluginManager, double speed) throws IOException, StoredException {
+		if(speed < 0) throw new IllegalArgumentException("The speed may not be negative");
+		
+		JournalReader reader = new JournalReader(directory, serializer);
+		StoredException exceptions = new StoredException();
+		
+		long sent = 0;
+		long firstRecorded = 0;
+		long firstReplayed = 0;
+		
+		while(reader.next()) {
+			long recorded = reader.getTimestamp();
+			
+			if(sent == 0) {
+				firstRecorded = recorded;
+				firstReplayed = System.nanoTime();
+			} else if(speed > 0) {
+				long due = firstReplayed + (long) ((recorded - firstRecorded) / speed);
+				for(long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			
+			try {
+				pluginManager.sendEvent(reader.readEvent());
+			} catch (IOException e) {
+				exceptions.addException(e);
+			} catch (StoredException e) {
+				for(Exception recordedException : e.recordedExceptions()) {
+					exceptions.addException(recordedException);
+				}
+			}
+			
+			sent++;
+		}
+		
+		ConsoleHandler.println("Replayed " + sent + " events from the journal " + directory.toString());
+		
+		if(exceptions.recordedExceptions().length != 0) throw exceptions;
+		
+		return sent;
+	}
+}
@@ -0,0 +1,93 @@
+package pluginmanager.journal;
+
+import java.io.File;
+import java.io.IOException;
+
+import pluginmanager.api.event.Event;
+import pluginmanager.api.event.EventSerializer;
+
+/**
+ * Reads the records of an event journal in the order they were written. A record which was torn by a crash ends its segment.
+ * 
+ * Usage:
+ * <pre>
+ * JournalReader reader = new JournalReader(directory, serializer);
+ * while(reader.next()) {
+ *     Event event = reader.readEvent();
+ * }
+ * </pre>
+ * 
+ * @author alexander
+ *
+ */
+public class JournalReader {
+	
+	private final File[] files;
+	private final EventSerializer serializer;
+	private int fileIndex = -1;
+	private JournalSegment segment;
+	private int position;
+	private int length = -1;
+	
+	/**
+	 * @param directory - the directory of the journal
+	 * @param serializer - an instance of the serializer the journal was written with
+	 */
+	public JournalReader(File directory, EventSerializer serializer) {
+		this.files = JournalSegment.list(directory);
+		this.serializer = serializer;
+	}
+	
+	/**
+	 * Moves to the next record.
+	 * 
+	 * @return false if there are no more records
+	 * @throws IOException if a segment cannot be read
+	 */
+	public boolean next() throws IOException {
+		if(this.segment != null && this.length != -1) this.position += JournalSegment.HEADER + this.length;
+		
+		while(true) {
+			if(this.segment != null) {
+				this.length = this.segment.recordLength(this.position);
+				if(this.length != -1) return true;
+			}
+			
+			if(++this.fileIndex >= this.files.length) {
+				this.segment = null;
+				return false;
+			}
+			
+			this.segment = JournalSegment.open(this.files[this.fileIndex], 0, false);
+			this.position = 0;
+		}
+	}
+	
+	private void requireRecord() {
+		if(this.segment == null || this.length == -1) throw new IllegalStateException("next() did not move to a record");
+	}
+	
+	/**
+	 * @return the time the event of the current record was sent, in nanoseconds since the epoch
+	 */
+	public long getTimestamp() {
+		this.requireRecord();
+		return this.segment.timestamp(this.position);
+	}
+	
+	/**
+	 * @return the serialized event of the current record
+	 */
+	public byte[] getPayload() {
+		this.requireRecord();
+		return this.segment.payload(this.position, this.length);
+	}
+	
+	/**
+	 * @return the event of the current record
+	 * @throws IOException if the serializer cannot read the event
+	 */
+	public Event readEvent() throws IOException {
+		return this.serializer.deserialize(this.getPayload());
+	}
+}
@@ -0,0 +1,135 @@
+package pluginmanager.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * One file of an event journal, mapped into memory. A segment is a sequence of records: the length of the payload (int), the
+ * CRC32 of the payload (int), the time the event was sent in nanoseconds since the epoch (long) and the payload. The file is
+ * created with its full size and filled with zeros, a zero length marks the end of the records.
+ * 
+ * @author alexander
+ *
+ */
+class JournalSegment {
+	
+	static final int HEADER = 4 + 4 + 8;
+	static final String SUFFIX = ".journal";
+	
+	private final File file;
+	private final MappedByteBuffer buffer;
+	
+	private JournalSegment(File file, MappedByteBuffer buffer) {
+		this.file = file;
+		this.buffer = buffer;
+	}
+	
+	/**
+	 * Maps the segment file, creating it with the given size if it does not exist.
+	 */
+	static JournalSegment open(File file, int size, boolean writable) throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r")) {
+			if(writable && raf.length() < size) raf.setLength(size);
+			
+			FileChannel channel = raf.getChannel();
+			//the mapping stays valid after the channel is closed
+			return new JournalSegment(file, channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+		}
+	}
+	
+	static File file(File directory, long index) {
+		return new File(directory, String.format("%020d", index) + SUFFIX);
+	}
+	
+	/**
+	 * @return the segment files of the directory, oldest first
+	 */
+	static File[] list(File directory) {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if(files == null) return new File[0];
+		
+		Arrays.sort(files);
+		return files;
+	}
+	
+	static long index(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+	}
+	
+	File getFile() {
+		return this.file;
+	}
+	
+	int capacity() {
+		return this.buffer.capacity();
+	}
+	
+	/**
+	 * Writes a record, the caller made sure it fits.
+	 * 
+	 * @return the position after the record
+	 */
+	int write(int position, long timestamp, byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		
+		this.buffer.put(position + HEADER, payload);
+		this.buffer.putLong(position + 8, timestamp);
+		this.buffer.putInt(position + 4, (int) crc.getValue());
+		//the length is written last, a reader never sees a length without the payload
+		this.buffer.putInt(position, payload.length);
+		
+		return position + HEADER + payload.length;
+	}
+	
+	/**
+	 * Writes the records between the positions to the file.
+	 */
+	void force(int from, int to) {
+		if(to > from) this.buffer.force(from, to - from);
+	}
+	
+	/**
+	 * @return the length of the payload of the record at the position, or -1 if there is no complete, intact record
+	 */
+	int recordLength(int position) {
+		if(position + HEADER > this.buffer.capacity()) return -1;
+		
+		int length = this.buffer.getInt(position);
+		if(length <= 0 || position + HEADER + length > this.buffer.capacity()) return -1;
+		
+		CRC32 crc = new CRC32();
+		crc.update(this.buffer.slice(position + HEADER, length));
+		return (int) crc.getValue() == this.buffer.getInt(position + 4) ? length : -1;
+	}
+	
+	long timestamp(int position) {
+		return this.buffer.getLong(position + 8);
+	}
+	
+	byte[] payload(int position, int length) {
+		byte[] payload = new byte[length];
+		this.buffer.get(position + HEADER, payload);
+		return payload;
+	}
+	
+	/**
+	 * @return the position after the last intact record
+	 */
+	int end() {
+		int position = 0;
+		int length;
+		
+		while((length = this.recordLength(position)) != -1) {
+			position += HEADER + length;
+		}
+		
+		return position;
+	}
+}
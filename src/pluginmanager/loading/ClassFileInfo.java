@@ -0,0 +1,213 @@
+package pluginmanager.loading;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parts of a class file PluginValidator looks at, read from the class bytes without loading the class: its name, access
+ * flags, super class, the annotations on the class and the name, descriptor, access flags and annotations of every method.
+ * Only the types of runtime visible annotations are kept, not their values.
+ * 
+ * @author alexander
+ *
+ */
+class ClassFileInfo {
+	
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_STATIC = 0x0008;
+	static final int ACC_INTERFACE = 0x0200;
+	static final int ACC_ABSTRACT = 0x0400;
+	
+	private static final int MAGIC = 0xCAFEBABE;
+	
+	final String name;
+	final String superName;
+	final int access;
+	final Set<String> annotations;
+	final List<MethodInfo> methods;
+	
+	private ClassFileInfo(String name, String superName, int access, Set<String> annotations, List<MethodInfo> methods) {
+		this.name = name;
+		this.superName = superName;
+		this.access = access;
+		this.annotations = annotations;
+		this.methods = methods;
+	}
+	
+	static class MethodInfo {
+		final String name;
+		final String descriptor;
+		final int access;
+		final Set<String> annotations;
+		
+		private MethodInfo(String name, String descriptor, int access, Set<String> annotations) {
+			this.name = name;
+			this.descriptor = descriptor;
+			this.access = access;
+			this.annotations = annotations;
+		}
+		
+		boolean is(int flag) {
+			return (this.access & flag) != 0;
+		}
+	}
+	
+	boolean is(int flag) {
+		return (this.access & flag) != 0;
+	}
+	
+	/**
+	 * @return the class name with dots
+	 */
+	String getClassName() {
+		return this.name.replace('/', '.');
+	}
+	
+	/**
+	 * @param descriptor - e.g. "()V"
+	 * @return the public constructor with the descriptor, or null
+	 */
+	MethodInfo getPublicConstructor(String descriptor) {
+		for(MethodInfo method : this.methods) {
+			if(method.name.equals("<init>") && method.descriptor.equals(descriptor) && method.is(ACC_PUBLIC)) return method;
+		}
+		return null;
+	}
+	
+	/**
+	 * @throws IOException if the bytes are no class file
+	 */
+	static ClassFileInfo read(DataInputStream in) throws IOException {
+		if(in.readInt() != MAGIC) throw new IOException("Not a class file");
+		in.readUnsignedShort();
+		in.readUnsignedShort();
+		
+		//constant pool, only the UTF8 entries and class references are needed
+		int count = in.readUnsignedShort();
+		String[] utf8 = new String[count];
+		int[] classNames = new int[count];
+		
+		for(int i = 1; i < count; i++) {
+			int tag = in.readUnsignedByte();
+			switch(tag) {
+			case 1:
+				utf8[i] = in.readUTF();
+				break;
+			case 7:
+				classNames[i] = in.readUnsignedShort();
+				break;
+			case 8: case 16: case 19: case 20:
+				in.readUnsignedShort();
+				break;
+			case 15:
+				in.readUnsignedByte();
+				in.readUnsignedShort();
+				break;
+			case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+				in.readInt();
+				break;
+			case 5: case 6:
+				in.readLong();
+				//longs and doubles take two entries
+				i++;
+				break;
+			default:
+				throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+		
+		int access = in.readUnsignedShort();
+		String name = utf8[classNames[in.readUnsignedShort()]];
+		int superIndex = in.readUnsignedShort();
+		String superName = superIndex == 0 ? null : utf8[classNames[superIndex]];
+		
+		int interfaces = in.readUnsignedShort();
+		for(int i = 0; i < interfaces; i++) {
+			in.readUnsignedShort();
+		}
+		
+		int fields = in.readUnsignedShort();
+		for(int i = 0; i < fields; i++) {
+			in.readUnsignedShort();
+			in.readUnsignedShort();
+			in.readUnsignedShort();
+			readAttributes(in, utf8);
+		}
+		
+		int methodCount = in.readUnsignedShort();
+		ArrayList<MethodInfo> methods = new ArrayList<MethodInfo>(methodCount);
+		for(int i = 0; i < methodCount; i++) {
+			int methodAccess = in.readUnsignedShort();
+			String methodName = utf8[in.readUnsignedShort()];
+			String descriptor = utf8[in.readUnsignedShort()];
+			methods.add(new MethodInfo(methodName, descriptor, methodAccess, readAttributes(in, utf8)));
+		}
+		
+		return new ClassFileInfo(name, superName, access, readAttributes(in, utf8), methods);
+	}
+	
+	/**
+	 * Skips the attributes, keeping the types of the runtime visible annotations.
+	 */
+	private static Set<String> readAttributes(DataInputStream in, String[] utf8) throws IOException {
+		Set<String> annotations = new HashSet<String>();
+		
+		int count = in.readUnsignedShort();
+		for(int i = 0; i < count; i++) {
+			String name = utf8[in.readUnsignedShort()];
+			int length = in.readInt();
+			
+			if("RuntimeVisibleAnnotations".equals(name)) {
+				int annotationCount = in.readUnsignedShort();
+				for(int a = 0; a < annotationCount; a++) {
+					annotations.add(readAnnotation(in, utf8));
+				}
+			} else {
+				in.skipNBytes(length);
+			}
+		}
+		
+		return annotations;
+	}
+	
+	/**
+	 * @return the type descriptor of the annotation, its values are skipped
+	 */
+	private static String readAnnotation(DataInputStream in, String[] utf8) throws IOException {
+		String type = utf8[in.readUnsignedShort()];
+		
+		int pairs = in.readUnsignedShort();
+		for(int i = 0; i < pairs; i++) {
+			in.readUnsignedShort();
+			skipElementValue(in, utf8);
+		}
+		
+		return type;
+	}
+	
+	private static void skipElementValue(DataInputStream in, String[] utf8) throws IOException {
+		int tag = in.readUnsignedByte();
+		switch(tag) {
+		case 'e':
+			in.readUnsignedShort();
+			in.readUnsignedShort();
+			break;
+		case '@':
+			readAnnotation(in, utf8);
+			break;
+		case '[':
+			int values = in.readUnsignedShort();
+			for(int i = 0; i < values; i++) {
+				skipElementValue(in, utf8);
+			}
+			break;
+		default:
+			//constants and classes are a single constant pool index
+			in.readUnsignedShort();
+		}
+	}
+}
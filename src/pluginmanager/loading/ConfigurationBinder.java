@@ -0,0 +1,239 @@
+package pluginmanager.loading;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import configurationutil.type.Configuration;
+import pluginmanager.api.annotations.ConfigurationKey;
+
+/**
+ * Binds a Configuration to an instance of a plain configuration class once, so plugins read their settings from fields instead
+ * of walking getSubConfiguration() chains on every read.
+ *
+ * Every non-static field of the class is bound to the sub configuration with the name of the field (or the name given by
+ * @ConfigurationKey). Primitives, their wrappers, Strings and enums are parsed from the value, fields of any other type are
+ * bound recursively to the sub configuration. Fields whose key is missing keep the value the no-argument constructor gave them.
+ *
+ * Fields may be final, but must not be initialized with a constant expression in their declaration (the compiler would inline
+ * the constant into every read), assign defaults in the constructor instead.
+ *
+ * @author alexander
+ *
+ */
+public class ConfigurationBinder {
+
+	//the binding plan of each configuration class is built once, binding only runs the precompiled setters
+	private static final ClassValue<Binding> BINDINGS = new ClassValue<Binding>() {
+		@Override
+		protected Binding computeValue(Class<?> type) {
+			return new Binding(type);
+		}
+	};
+
+	/**
+	 * @param configuration
+	 * @param type - the configuration class, it needs a no-argument constructor
+	 * @return a new instance of type holding the values of the configuration
+	 * @throws IllegalArgumentException if the class cannot be instantiated or a value cannot be converted to the type of its field
+	 */
+	public static <T> T bind(Configuration configuration, Class<T> type) throws IllegalArgumentException {
+		return type.cast(BINDINGS.get(type).bind(configuration));
+	}
+
+	/**
+	 * Compares two bound configurations of the same class.
+	 * 
+	 * @param previous
+	 * @param current
+	 * @return the keys whose values differ, keys of nested configuration classes are joined with a dot (e.g. "database.port")
+	 * @throws IllegalArgumentException if the objects are not instances of the same configuration class
+	 */
+	public static Set<String> diff(Object previous, Object current) throws IllegalArgumentException {
+		if(previous.getClass() != current.getClass()) throw new IllegalArgumentException("Cannot compare a " + previous.getClass().getName() + " to a " + current.getClass().getName());
+
+		TreeSet<String> changed = new TreeSet<String>();
+		BINDINGS.get(previous.getClass()).diff(previous, current, "", changed);
+		return changed;
+	}
+
+	/**
+	 * @param type - the configuration class
+	 * @return all keys bound by the class, keys of nested configuration classes are joined with a dot like in diff()
+	 * @throws IllegalArgumentException if the class cannot be bound
+	 */
+	public static Set<String> keys(Class<?> type) throws IllegalArgumentException {
+		TreeSet<String> keys = new TreeSet<String>();
+		BINDINGS.get(type).keys("", keys, new ArrayList<Class<?>>());
+		return keys;
+	}
+
+	private static Configuration getSubConfiguration(Configuration configuration, String key) {
+		try {
+			return configuration.getSubConfiguration(key);
+		} catch (RuntimeException e) {
+			//treated like a missing key, the field keeps its default
+			return null;
+		}
+	}
+
+	private static Object convert(String value, Class<?> type, String key) throws IllegalArgumentException {
+		String trimmed = value.trim();
+
+		try {
+			if(type == String.class) return value;
+			if(type == int.class || type == Integer.class) return Integer.parseInt(trimmed);
+			if(type == long.class || type == Long.class) return Long.parseLong(trimmed);
+			if(type == double.class || type == Double.class) return Double.parseDouble(trimmed);
+			if(type == float.class || type == Float.class) return Float.parseFloat(trimmed);
+			if(type == short.class || type == Short.class) return Short.parseShort(trimmed);
+			if(type == byte.class || type == Byte.class) return Byte.parseByte(trimmed);
+			if(type == boolean.class || type == Boolean.class) {
+				if(trimmed.equalsIgnoreCase("true")) return Boolean.TRUE;
+				if(trimmed.equalsIgnoreCase("false")) return Boolean.FALSE;
+				throw new IllegalArgumentException("not a boolean");
+			}
+			if(type == char.class || type == Character.class) {
+				if(value.length() != 1) throw new IllegalArgumentException("not a single character");
+				return value.charAt(0);
+			}
+			if(type.isEnum()) {
+				for(Object constant : type.getEnumConstants()) {
+					if(((Enum<?>) constant).name().equalsIgnoreCase(trimmed)) return constant;
+				}
+				throw new IllegalArgumentException("not a constant of " + type.getName());
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Cannot convert the value \"" + value + "\" of key " + key + " to " + type.getName() + ": " + e.getMessage(), e);
+		}
+
+		return null;
+	}
+
+	private static boolean isValueType(Class<?> type) {
+		return type.isPrimitive() || type.isEnum() || type == String.class || type == Integer.class || type == Long.class || type == Double.class
+				|| type == Float.class || type == Short.class || type == Byte.class || type == Boolean.class || type == Character.class;
+	}
+
+	private static class Binding {
+		private final Class<?> type;
+		private final Constructor<?> constructor;
+		private final String[] keys;
+		private final Class<?>[] types;
+		private final MethodHandle[] setters;
+		private final MethodHandle[] getters;
+
+		private Binding(Class<?> type) {
+			if(type.isInterface() || Modifier.isAbstract(type.getModifiers())) throw new IllegalArgumentException("The configuration class " + type.getName() + " must be a concrete class");
+
+			ArrayList<String> keys = new ArrayList<String>();
+			ArrayList<Class<?>> types = new ArrayList<Class<?>>();
+			ArrayList<MethodHandle> setters = new ArrayList<MethodHandle>();
+			ArrayList<MethodHandle> getters = new ArrayList<MethodHandle>();
+
+			try {
+				this.constructor = type.getDeclaredConstructor();
+				this.constructor.setAccessible(true);
+
+				for(Class<?> clazz = type; clazz != Object.class; clazz = clazz.getSuperclass()) {
+					for(Field field : clazz.getDeclaredFields()) {
+						if(Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) continue;
+
+						ConfigurationKey key = field.getAnnotation(ConfigurationKey.class);
+						field.setAccessible(true);
+
+						keys.add(key == null ? field.getName() : key.value());
+						types.add(field.getType());
+						setters.add(MethodHandles.lookup().unreflectSetter(field));
+						getters.add(MethodHandles.lookup().unreflectGetter(field));
+					}
+				}
+			} catch (NoSuchMethodException e) {
+				throw new IllegalArgumentException("The configuration class " + type.getName() + " needs a constructor without arguments", e);
+			} catch (IllegalAccessException | SecurityException e) {
+				throw new IllegalArgumentException("The fields of the configuration class " + type.getName() + " cannot be accessed", e);
+			}
+
+			this.type = type;
+			this.keys = keys.toArray(new String[keys.size()]);
+			this.types = types.toArray(new Class<?>[types.size()]);
+			this.setters = setters.toArray(new MethodHandle[setters.size()]);
+			this.getters = getters.toArray(new MethodHandle[getters.size()]);
+		}
+
+		private Object bind(Configuration configuration) throws IllegalArgumentException {
+			Object instance = null;
+
+			try {
+				instance = this.constructor.newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Cannot instantiate the configuration class " + this.type.getName(), e);
+			}
+
+			for(int i = 0; i < this.keys.length; i++) {
+				Configuration sub = getSubConfiguration(configuration, this.keys[i]);
+				if(sub == null) continue;
+
+				Object value = null;
+
+				if(isValueType(this.types[i])) {
+					String raw = sub.getValue();
+					if(raw == null) continue;
+					value = convert(raw, this.types[i], this.keys[i]);
+				} else {
+					value = BINDINGS.get(this.types[i]).bind(sub);
+				}
+
+				try {
+					this.setters[i].invoke(instance, value);
+				} catch (Throwable t) {
+					throw new IllegalArgumentException("Cannot set the key " + this.keys[i] + " of the configuration class " + this.type.getName(), t);
+				}
+			}
+
+			return instance;
+		}
+
+		private void keys(String prefix, Set<String> keys, List<Class<?>> path) {
+			path.add(this.type);
+
+			for(int i = 0; i < this.keys.length; i++) {
+				//a class nested in itself is listed by its own key only, there is no end to its keys otherwise
+				if(isValueType(this.types[i]) || path.contains(this.types[i])) {
+					keys.add(prefix + this.keys[i]);
+				} else {
+					BINDINGS.get(this.types[i]).keys(prefix + this.keys[i] + ".", keys, path);
+				}
+			}
+
+			path.remove(path.size() - 1);
+		}
+
+		private void diff(Object previous, Object current, String prefix, Set<String> changed) {
+			for(int i = 0; i < this.keys.length; i++) {
+				Object before = null;
+				Object after = null;
+
+				try {
+					before = this.getters[i].invoke(previous);
+					after = this.getters[i].invoke(current);
+				} catch (Throwable t) {
+					throw new IllegalArgumentException("Cannot read the key " + this.keys[i] + " of the configuration class " + this.type.getName(), t);
+				}
+
+				if(isValueType(this.types[i]) || before == null || after == null) {
+					if(!Objects.equals(before, after)) changed.add(prefix + this.keys[i]);
+				} else {
+					BINDINGS.get(this.types[i]).diff(before, after, prefix + this.keys[i] + ".", changed);
+				}
+			}
+		}
+	}
+}
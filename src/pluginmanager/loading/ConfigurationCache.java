@@ -0,0 +1,233 @@
+package pluginmanager.loading;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import configurationutil.type.Configuration;
+import pluginmanager.util.ConsoleHandler;
+import pluginmanager.util.FileHasher;
+
+/**
+ * A binary cache of parsed configuration files, stored in one file next to them. The whole cache is read with a single memory
+ * mapped read, configuration files whose contents still have the hash they were cached with are then deserialized instead of
+ * being parsed again. Entries are only validated by the hash, every file is hashed on each load, so an edit that kept the
+ * modification time and size is never missed.
+ *
+ * Configurations are stored with Java serialization, if the configuration library hands out configurations which are not
+ * Serializable the cache stays empty and is not written. The cache file lives next to the configurations and may be written by
+ * anyone who can write those, so deserialization only accepts classes of the configuration library, java.lang and java.util,
+ * with limits on depth, references and array sizes (see FILTER). Entries which are rejected are parsed again.
+ *
+ * Layout: magic, version, entry count, then per entry: path, hash, length of the serialized configuration and the serialized
+ * configuration. Strings are stored as their length followed by their UTF-8 bytes.
+ *
+ * @author alexander
+ *
+ */
+public class ConfigurationCache {
+
+	public static final String DEFAULT_NAME = ".configurations.ccfcache";
+
+	private static final int MAGIC = 0x43434643;
+	private static final int VERSION = 2;
+
+	private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+			"maxdepth=32;maxrefs=100000;maxarray=100000;configurationutil.**;java.lang.*;java.util.*;!*");
+
+	private final File cacheFile;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	//the hashes of the files loaded through getConfiguration(), taken before they were parsed
+	private final Map<String, String> verified = new HashMap<String, String>();
+	private boolean modified = false;
+
+	/**
+	 * Reads the cache file, a missing or broken cache file results in an empty cache.
+	 *
+	 * @param cacheFile
+	 */
+	public ConfigurationCache(File cacheFile) {
+		this.cacheFile = cacheFile;
+
+		if(!cacheFile.isFile()) return;
+
+		try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				ConsoleHandler.println("Ignoring configuration cache " + cacheFile.toString() + " of an unknown format");
+				return;
+			}
+
+			int count = buffer.getInt();
+			for(int i = 0; i < count; i++) {
+				String path = readString(buffer);
+				String hash = readString(buffer);
+				byte[] data = new byte[buffer.getInt()];
+				buffer.get(data);
+
+				this.entries.put(path, new Entry(hash, data));
+			}
+
+			ConsoleHandler.println("Read " + count + " cached configurations from " + cacheFile.toString());
+		} catch (IOException | RuntimeException e) {
+			ConsoleHandler.println("Ignoring broken configuration cache " + cacheFile.toString());
+			this.entries.clear();
+		}
+	}
+
+	/**
+	 * Gets the configuration of a file, from the cache if the contents of the file did not change, otherwise by parsing it.
+	 *
+	 * @param file
+	 * @return the configuration
+	 * @throws IOException
+	 */
+	public Configuration getConfiguration(File file) throws IOException {
+		String path = file.getAbsolutePath();
+		String hash = FileHasher.sha256(file);
+		Entry entry = this.entries.get(path);
+
+		this.verified.put(path, hash);
+
+		if(entry != null && entry.hash.equals(hash)) {
+			Configuration cached = deserialize(entry.data);
+
+			if(cached != null) return cached;
+		}
+
+		Configuration configuration = ConfigurationDiscoverer.parseConfigurations(new File[] {file})[0];
+		byte[] data = serialize(configuration);
+
+		if(data != null) {
+			this.entries.put(path, new Entry(hash, data));
+			this.modified = true;
+		} else {
+			this.entries.remove(path);
+		}
+
+		return configuration;
+	}
+
+	/**
+	 * @param file
+	 * @return the hash of the file contents when getConfiguration() loaded it, or the current hash if it was not loaded through
+	 * getConfiguration()
+	 * @throws IOException
+	 */
+	public String getHash(File file) throws IOException {
+		String hash = this.verified.get(file.getAbsolutePath());
+
+		return hash != null ? hash : FileHasher.sha256(file);
+	}
+
+	/**
+	 * Writes the cache file if a configuration was parsed since it was read. Entries of files which were not
+	 * requested through getConfiguration() are dropped.
+	 *
+	 * @param files - the configuration files which still exist
+	 * @throws IOException
+	 */
+	public void save(File[] files) throws IOException {
+		HashMap<String, Entry> kept = new HashMap<String, Entry>();
+		for(File file : files) {
+			Entry entry = this.entries.get(file.getAbsolutePath());
+			if(entry != null) kept.put(file.getAbsolutePath(), entry);
+		}
+
+		if(!this.modified && kept.size() == this.entries.size()) return;
+
+		if(kept.isEmpty()) {
+			//nothing could be serialized, don't leave an empty cache behind
+			if(this.cacheFile.isFile()) this.cacheFile.delete();
+			return;
+		}
+
+		File temporary = new File(this.cacheFile.getAbsolutePath() + ".tmp");
+
+		try(DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(kept.size());
+
+			for(Map.Entry<String, Entry> entry : kept.entrySet()) {
+				writeString(out, entry.getKey());
+				writeString(out, entry.getValue().hash);
+				out.writeInt(entry.getValue().data.length);
+				out.write(entry.getValue().data);
+			}
+		}
+
+		//replace the old cache in one step, so readers never see a half written cache
+		if(!temporary.renameTo(this.cacheFile)) {
+			this.cacheFile.delete();
+			if(!temporary.renameTo(this.cacheFile)) throw new IOException("Could not write the configuration cache " + this.cacheFile.toString());
+		}
+
+		this.entries.clear();
+		this.entries.putAll(kept);
+		this.modified = false;
+
+		ConsoleHandler.println("Wrote " + kept.size() + " configurations to the configuration cache " + this.cacheFile.toString());
+	}
+
+	private static byte[] serialize(Configuration configuration) {
+		if(!(configuration instanceof Serializable)) return null;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(configuration);
+		} catch (IOException e) {
+			//some part of the configuration tree is not serializable
+			return null;
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static Configuration deserialize(byte[] data) {
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+			in.setObjectInputFilter(FILTER);
+			return (Configuration) in.readObject();
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			//written by an incompatible version of the configuration library or rejected by the filter, parse the file again
+			return null;
+		}
+	}
+
+	private static String readString(MappedByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static class Entry {
+		private final String hash;
+		private final byte[] data;
+
+		private Entry(String hash, byte[] data) {
+			this.hash = hash;
+			this.data = data;
+		}
+	}
+}
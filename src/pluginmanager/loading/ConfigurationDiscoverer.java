@@ -52,4 +52,22 @@ public class ConfigurationDiscoverer {
 		
 		return conf.toArray(new Configuration[conf.size()]);
 	}
+	
+	/**
+	 * Parses the configuration files, taking configurations of unchanged files from the cache.
+	 * 
+	 * @param files
+	 * @param cache
+	 * @return the configurations in the order of the files
+	 * @throws IOException
+	 */
+	public static Configuration[] parseConfigurations(File[] files, ConfigurationCache cache) throws IOException {
+		List<Configuration> conf = new ArrayList<Configuration>();
+		
+		for(File file : files) {
+			conf.add(cache.getConfiguration(file));
+		}
+		
+		return conf.toArray(new Configuration[conf.size()]);
+	}
 }
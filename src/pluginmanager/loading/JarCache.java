@@ -0,0 +1,216 @@
+package pluginmanager.loading;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pluginmanager.util.ConsoleHandler;
+import pluginmanager.util.FileHasher;
+
+/**
+ * JVM-wide cache of loaded plugin jars, shared by all PluginManagers. Jars are identified by the hash of their contents, so
+ * PluginManagers loading the same plugin version from different paths load and inspect it only once. Released jars stay cached
+ * for the next PluginManager loading them, up to getMaximumSize() jars. Once the cache is full the least recently used jars no
+ * PluginManager uses any more are evicted and their class loaders closed. Jars in use are never evicted, so the cache may hold
+ * more than getMaximumSize() jars while they are all in use.
+ *
+ * Sharing a jar shares its Class objects: static fields of plugin classes are seen by every PluginManager using the jar, and
+ * static initializers run only once. PluginManagers only share jars if enabled with PluginManager:setJarSharing(), otherwise
+ * they load their jars through loadIsolated(), which gives every caller classes of its own.
+ *
+ * @author alexander
+ *
+ */
+public class JarCache {
+
+	private static int maximumSize = 64;
+
+	//least recently used first
+	private static final Map<String, JarMetadata> JARS = new LinkedHashMap<String, JarMetadata>(16, 0.75f, true);
+
+	//number of PluginManagers using each cached jar, jars without users are missing
+	private static final Map<JarMetadata, Integer> USERS = new IdentityHashMap<JarMetadata, Integer>();
+
+	//remembers the hash of a jar file as long as its path, size and modification time don't change
+	private static final Map<String, String> HASHES = new LinkedHashMap<String, String>(16, 0.75f, true);
+
+	/**
+	 * Sets the number of jars kept cached, unused jars beyond it are closed right away.
+	 *
+	 * @param size
+	 */
+	public static synchronized void setMaximumSize(int size) {
+		if(size < 0) throw new IllegalArgumentException("The cache size may not be negative");
+		maximumSize = size;
+		trim();
+	}
+
+	public static synchronized int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Empties the cache. Jars which are not in use are closed right away, jars in use once their last user released them.
+	 */
+	public static synchronized void clear() {
+		for(JarMetadata metadata : JARS.values()) {
+			if(!USERS.containsKey(metadata)) close(metadata);
+		}
+
+		JARS.clear();
+		HASHES.clear();
+	}
+
+	/**
+	 * Gets the metadata of the jar, loading the jar into the JVM if no jar with the same contents is cached. Call release() once
+	 * the jar is no longer used.
+	 *
+	 * @param jar
+	 * @return the metadata of the jar
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 */
+	public static JarMetadata getMetadata(File jar) throws ClassNotFoundException, IOException {
+		String hash = hash(jar);
+
+		synchronized(JarCache.class) {
+			JarMetadata cached = JARS.get(hash);
+			if(cached != null) {
+				ConsoleHandler.println("Using cached jar " + hash + " for jar file " + jar.toString());
+				acquire(cached);
+				return cached;
+			}
+		}
+
+		//load outside of the lock, a jar loaded concurrently by another PluginManager is discarded below
+		JarMetadata loaded = load(jar, hash);
+
+		synchronized(JarCache.class) {
+			JarMetadata cached = JARS.get(hash);
+			if(cached != null) {
+				loaded.close();
+				acquire(cached);
+				return cached;
+			}
+
+			JARS.put(hash, loaded);
+			acquire(loaded);
+			trim();
+			return loaded;
+		}
+	}
+
+	/**
+	 * Loads the jar through a class loader of its own without caching it, so its classes and their static state are not shared
+	 * with anyone else. Call release() once the jar is no longer used.
+	 *
+	 * @param jar
+	 * @return the metadata of the jar
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 */
+	public static JarMetadata loadIsolated(File jar) throws ClassNotFoundException, IOException {
+		return load(jar, hash(jar));
+	}
+
+	private static JarMetadata load(File jar, String hash) throws ClassNotFoundException, IOException {
+		URLClassLoader loader = JarLoader.createClassLoader(jar);
+		try {
+			return new JarMetadata(hash, JarLoader.loadJar(jar, loader), loader);
+		} catch (ClassNotFoundException | RuntimeException | LinkageError e) {
+			loader.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases a jar obtained through getMetadata() or loadIsolated(). Jars from loadIsolated() are closed right away, cached
+	 * jars stay cached without users until they are evicted, so the jar file may stay open until then.
+	 *
+	 * @param metadata
+	 */
+	public static synchronized void release(JarMetadata metadata) {
+		Integer users = USERS.get(metadata);
+
+		//jars from loadIsolated() were never cached, closing a class loader twice does no harm
+		if(users == null) {
+			if(JARS.get(metadata.getHash()) != metadata) close(metadata);
+			return;
+		}
+
+		if(users > 1) {
+			USERS.put(metadata, users - 1);
+			return;
+		}
+
+		USERS.remove(metadata);
+
+		//cleared while in use
+		if(JARS.get(metadata.getHash()) != metadata) {
+			close(metadata);
+			return;
+		}
+
+		trim();
+	}
+
+	private static void acquire(JarMetadata metadata) {
+		Integer users = USERS.get(metadata);
+		USERS.put(metadata, users == null ? 1 : users + 1);
+	}
+
+	private static void close(JarMetadata metadata) {
+		ConsoleHandler.println("Closing jar " + metadata.getHash());
+		metadata.close();
+	}
+
+	/**
+	 * Computes the SHA-256 hash of the jar contents, reusing the last hash if the file has not changed since.
+	 *
+	 * @param jar
+	 * @return the hash in hex
+	 * @throws IOException
+	 */
+	public static String hash(File jar) throws IOException {
+		String identity = jar.getCanonicalPath() + ":" + jar.length() + ":" + jar.lastModified();
+
+		synchronized(JarCache.class) {
+			String hash = HASHES.get(identity);
+			if(hash != null) return hash;
+		}
+
+		String hash = FileHasher.sha256(jar);
+
+		synchronized(JarCache.class) {
+			HASHES.put(identity, hash);
+			trim();
+		}
+
+		return hash;
+	}
+
+	private static void trim() {
+		Iterator<JarMetadata> jars = JARS.values().iterator();
+		int size = JARS.size();
+		while(size > maximumSize && jars.hasNext()) {
+			JarMetadata metadata = jars.next();
+			if(USERS.containsKey(metadata)) continue;
+
+			jars.remove();
+			size--;
+			ConsoleHandler.println("Evicted jar " + metadata.getHash() + " from the jar cache");
+			close(metadata);
+		}
+
+		//hashes are tiny, keep a few more of them than jars
+		Iterator<String> hashes = HASHES.keySet().iterator();
+		while(HASHES.size() > maximumSize * 4 && hashes.hasNext()) {
+			hashes.next();
+			hashes.remove();
+		}
+	}
+}
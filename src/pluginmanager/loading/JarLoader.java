@@ -7,8 +7,16 @@ import java.net.URLClassLoader;
 import java.util.ArrayList;
 
 import pluginmanager.util.ConsoleHandler;
+import pluginmanager.util.RecordedEvents;
 
 public class JarLoader {
+	/**
+	 * Loads the class through a class loader of its own, which is closed right away.
+	 * 
+	 * @deprecated Classes of one jar loaded this way cannot see each other, load the whole jar with loadJar(File, ClassLoader)
+	 * instead.
+	 */
+	@Deprecated
 	public static Class<?> loadClass(String className, File file) throws ClassNotFoundException, IOException {
 		ConsoleHandler.println("Loading class " + className + " from jar file " + file.toString());
 		
@@ -21,8 +29,18 @@ public class JarLoader {
 		return classToLoad;
 	}
 	
+	/**
+	 * Loads every class of the jar through a class loader of its own (see loadClass()).
+	 * 
+	 * @deprecated Use loadJar(File, ClassLoader) with a loader from createClassLoader(), which loads the jar through one class
+	 * loader that can be closed once the jar is no longer used.
+	 */
+	@Deprecated
 	public static Class<?>[] loadJar(File file) throws ClassNotFoundException, IOException {
 		ConsoleHandler.println("Loading jar file " + file.toString() + " into JVM");
+		RecordedEvents.JarLoad recorded = new RecordedEvents.JarLoad();
+		recorded.begin();
+		
 		String[] classes = JarDiscoverer.getClasses(file);
 		
 		ArrayList<Class<?>> classObjects = new ArrayList<Class<?>>();
@@ -31,6 +49,58 @@ public class JarLoader {
 			classObjects.add(JarLoader.loadClass(clazz, file));
 		}
 		
+		commit(recorded, file, classObjects.size());
+		
 		return classObjects.toArray(new Class<?>[classObjects.size()]);
 	}
+	
+	/**
+	 * Creates the class loader for a plugin jar. All classes of the jar are loaded through it, so they can see each other and the
+	 * jar stays open until the loader is closed.
+	 * 
+	 * @param file
+	 * @return the class loader, close it once the classes of the jar are no longer used
+	 * @throws IOException
+	 */
+	public static URLClassLoader createClassLoader(File file) throws IOException {
+		return new URLClassLoader(new URL[] {file.toURI().toURL()}, ClassLoader.getSystemClassLoader());
+	}
+	
+	/**
+	 * Loads all classes of the jar through one class loader (see createClassLoader()). The classes are not initialized, so static
+	 * initializers of lazy plugins only run once the plugin is activated (see PluginWrapper:activate()) and those of other classes
+	 * on their first use.
+	 * 
+	 * @param file
+	 * @param loader
+	 * @return the classes of the jar
+	 * @throws ClassNotFoundException
+	 */
+	public static Class<?>[] loadJar(File file, ClassLoader loader) throws ClassNotFoundException {
+		ConsoleHandler.println("Loading jar file " + file.toString() + " into JVM");
+		RecordedEvents.JarLoad recorded = new RecordedEvents.JarLoad();
+		recorded.begin();
+		
+		String[] classes = JarDiscoverer.getClasses(file);
+		
+		Class<?>[] classObjects = new Class<?>[classes.length];
+		
+		for(int i = 0; i < classes.length; i++) {
+			ConsoleHandler.println("Loading class " + classes[i] + " from jar file " + file.toString());
+			classObjects[i] = Class.forName(classes[i], false, loader);
+		}
+		
+		commit(recorded, file, classObjects.length);
+		
+		return classObjects;
+	}
+	
+	private static void commit(RecordedEvents.JarLoad recorded, File file, int classes) {
+		recorded.end();
+		if(!recorded.shouldCommit()) return;
+		
+		recorded.jar = file.getAbsolutePath();
+		recorded.classes = classes;
+		recorded.commit();
+	}
 }
\ No newline at end of file
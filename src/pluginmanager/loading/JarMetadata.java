@@ -0,0 +1,113 @@
+package pluginmanager.loading;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import pluginmanager.api.annotations.EventHandler;
+import pluginmanager.api.annotations.EventHandlerSubscriber;
+import pluginmanager.api.annotations.Plugin;
+import pluginmanager.util.ConsoleHandler;
+
+/**
+ * Everything PluginManager needs to know about a loaded plugin jar: its classes, the classes annotated with @Plugin and
+ * @EventHandlerSubscriber and the @EventHandler methods of each subscriber. Instances are immutable and may be shared between
+ * PluginManagers through the JarCache.
+ * 
+ * @author alexander
+ *
+ */
+public class JarMetadata {
+	
+	private final String hash;
+	private final Class<?>[] classes;
+	private final Class<?>[] pluginClasses;
+	private final Class<?>[] subscribers;
+	private final Map<Class<?>, Method[]> handlerMethods;
+	private final URLClassLoader loader;
+	
+	JarMetadata(String hash, Class<?>[] classes, URLClassLoader loader) {
+		ArrayList<Class<?>> plugins = new ArrayList<Class<?>>();
+		ArrayList<Class<?>> subscribers = new ArrayList<Class<?>>();
+		HashMap<Class<?>, Method[]> handlers = new HashMap<Class<?>, Method[]>();
+		
+		for(Class<?> clazz : classes) {
+			if(clazz.isAnnotationPresent(Plugin.class)) plugins.add(clazz);
+			if(clazz.isAnnotationPresent(EventHandlerSubscriber.class)) {
+				subscribers.add(clazz);
+				handlers.put(clazz, findHandlerMethods(clazz));
+			}
+		}
+		
+		this.hash = hash;
+		this.classes = classes;
+		this.pluginClasses = plugins.toArray(new Class<?>[plugins.size()]);
+		this.subscribers = subscribers.toArray(new Class<?>[subscribers.size()]);
+		this.handlerMethods = Collections.unmodifiableMap(handlers);
+		this.loader = loader;
+	}
+	
+	/**
+	 * Gets all public methods of the class annotated with @EventHandler.
+	 * 
+	 * @param clazz
+	 * @return an Array of methods or an empty array if the class has no eventHandlers
+	 */
+	public static Method[] findHandlerMethods(Class<?> clazz) {
+		ArrayList<Method> methods = new ArrayList<Method>();
+		
+		for(Method method : clazz.getMethods()) {
+			if(method.isAnnotationPresent(EventHandler.class)) methods.add(method);
+		}
+		
+		return methods.toArray(new Method[methods.size()]);
+	}
+	
+	/**
+	 * @return the SHA-256 hash of the jar contents, in hex
+	 */
+	public String getHash() {
+		return this.hash;
+	}
+	
+	public Class<?>[] getClasses() {
+		return this.classes.clone();
+	}
+	
+	/**
+	 * @return all classes annotated with @Plugin, a well formed plugin jar has exactly one
+	 */
+	public Class<?>[] getPluginClasses() {
+		return this.pluginClasses.clone();
+	}
+	
+	public Class<?>[] getSubscribers() {
+		return this.subscribers.clone();
+	}
+	
+	/**
+	 * Gets the eventHandlers of each subscriber class in this jar. The arrays in the map are shared, do not modify them.
+	 * 
+	 * @return an unmodifiable map from subscriber class to its @EventHandler methods
+	 */
+	public Map<Class<?>, Method[]> getHandlerMethods() {
+		return this.handlerMethods;
+	}
+	
+	/**
+	 * Closes the class loader of the jar, classes of the jar which were not loaded yet cannot be loaded afterwards.
+	 */
+	void close() {
+		if(this.loader == null) return;
+		
+		try {
+			this.loader.close();
+		} catch (IOException e) {
+			ConsoleHandler.println("Could not close the class loader of jar " + this.hash + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package pluginmanager.loading;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import pluginmanager.api.annotations.EventHandler;
+import pluginmanager.api.annotations.EventHandlerSubscriber;
+import pluginmanager.api.annotations.Plugin;
+import pluginmanager.util.ConsoleHandler;
+
+/**
+ * Checks a plugin jar before any of its classes is loaded, by reading the class files. A jar is rejected if:
+ * 
+ * - it does not contain exactly one class annotated with @Plugin, or that class cannot be instantiated (it needs to be a
+ * public, concrete class with a public no-argument constructor)
+ * - a public @EventHandler method of a subscriber (or a class inherited by one) does not take exactly one parameter or its
+ * parameter is no object
+ * - a subscriber class declares public non-static eventHandlers but cannot be instantiated
+ * 
+ * EventHandlers which are not public or are in classes which are neither subscribers nor inherited by a subscriber of the jar
+ * are never called, as before the checks existed, so they and their parameter problems are reported as warnings only.
+ * 
+ * The verdict is cached by the hash of the jar (see JarCache:hash()) for the lifetime of the JVM. If a verdict file is set, the
+ * hashes of valid jars are stored in it as well, so unchanged jars skip the checks on later starts.
+ * 
+ * @author alexander
+ *
+ */
+public class PluginValidator {
+	
+	//bump this whenever the checks change, so verdicts of older checks are not trusted
+	private static final String VERDICT_HEADER = "pluginmanager-validator 1";
+	
+	private static final String PLUGIN = descriptor(Plugin.class);
+	private static final String SUBSCRIBER = descriptor(EventHandlerSubscriber.class);
+	private static final String EVENT_HANDLER = descriptor(EventHandler.class);
+	
+	private static final Map<String, List<String>> VERDICTS = new HashMap<String, List<String>>();
+	private static final Set<String> PERSISTED = new LinkedHashSet<String>();
+	private static File verdictFile;
+	
+	private static String descriptor(Class<?> annotation) {
+		return "L" + annotation.getName().replace('.', '/') + ";";
+	}
+	
+	/**
+	 * Stores the hashes of valid jars in the file and trusts the hashes already stored in it. Pass null to only cache verdicts
+	 * in memory.
+	 * 
+	 * @param file
+	 */
+	public static synchronized void setVerdictFile(File file) {
+		verdictFile = file;
+		PERSISTED.clear();
+		
+		if(file == null || !file.isFile()) return;
+		
+		try {
+			List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+			if(lines.isEmpty() || !lines.get(0).equals(VERDICT_HEADER)) {
+				ConsoleHandler.println("Ignoring validation verdicts " + file.toString() + " of another validator version");
+				return;
+			}
+			
+			PERSISTED.addAll(lines.subList(1, lines.size()));
+			for(String hash : PERSISTED) {
+				VERDICTS.put(hash, Collections.<String>emptyList());
+			}
+			
+			ConsoleHandler.println("Read " + PERSISTED.size() + " validation verdicts from " + file.toString());
+		} catch (IOException e) {
+			ConsoleHandler.println("Ignoring unreadable validation verdicts " + file.toString() + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Empties the in-memory verdict cache, the verdict file is kept.
+	 */
+	public static synchronized void clear() {
+		VERDICTS.clear();
+	}
+	
+	/**
+	 * Validates the jar, or returns the cached verdict if a jar with the same contents was validated before.
+	 * 
+	 * @param jar
+	 * @return the problems found, empty if the jar is a well formed plugin
+	 * @throws IOException if the jar cannot be read
+	 */
+	public static List<String> validate(File jar) throws IOException {
+		String hash = JarCache.hash(jar);
+		
+		synchronized(PluginValidator.class) {
+			List<String> verdict = VERDICTS.get(hash);
+			if(verdict != null) return verdict;
+		}
+		
+		long start = System.nanoTime();
+		List<String> problems = Collections.unmodifiableList(check(jar, readClasses(jar)));
+		ConsoleHandler.println("Validated jar file " + jar.toString() + " in " + (System.nanoTime() - start) / 1000 + " microseconds, " + problems.size() + " problems found");
+		
+		synchronized(PluginValidator.class) {
+			VERDICTS.put(hash, problems);
+			if(problems.isEmpty() && verdictFile != null && PERSISTED.add(hash)) writeVerdicts();
+		}
+		
+		return problems;
+	}
+	
+	private static void writeVerdicts() {
+		try {
+			ArrayList<String> lines = new ArrayList<String>();
+			lines.add(VERDICT_HEADER);
+			lines.addAll(PERSISTED);
+			
+			//write a new file and move it into place, so a crash never leaves half a file behind
+			File temporary = new File(verdictFile.getPath() + ".tmp");
+			Files.write(temporary.toPath(), lines, StandardCharsets.UTF_8);
+			Files.move(temporary.toPath(), verdictFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			ConsoleHandler.println("Could not write validation verdicts " + verdictFile.toString() + ": " + e.getMessage());
+		}
+	}
+	
+	private static Map<String, ClassFileInfo> readClasses(File jar) throws IOException {
+		//sorted by name, so the problems are always reported in the same order
+		Map<String, ClassFileInfo> classes = new TreeMap<String, ClassFileInfo>();
+		
+		try(JarFile file = new JarFile(jar)) {
+			Enumeration<JarEntry> entries = file.entries();
+			while(entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				if(entry.isDirectory() || !entry.getName().endsWith(".class") || entry.getName().endsWith("module-info.class")) continue;
+				
+				try(DataInputStream in = new DataInputStream(new BufferedInputStream(file.getInputStream(entry)))) {
+					ClassFileInfo info = ClassFileInfo.read(in);
+					classes.put(info.name, info);
+				} catch (IOException | RuntimeException e) {
+					throw new IOException("Could not read class file " + entry.getName() + " of jar " + jar.toString() + ": " + e.toString(), e);
+				}
+			}
+		}
+		
+		return classes;
+	}
+	
+	private static List<String> check(File jar, Map<String, ClassFileInfo> classes) {
+		ArrayList<String> problems = new ArrayList<String>();
+		ArrayList<String> plugins = new ArrayList<String>();
+		
+		for(ClassFileInfo info : classes.values()) {
+			if(info.annotations.contains(PLUGIN)) plugins.add(info.getClassName());
+		}
+		Collections.sort(plugins);
+		
+		if(plugins.isEmpty()) problems.add("No class is annotated with @Plugin");
+		if(plugins.size() > 1) problems.add("Only one class may be annotated with @Plugin, found " + plugins.size() + ": " + String.join(", ", plugins));
+		
+		for(ClassFileInfo info : classes.values()) {
+			boolean plugin = info.annotations.contains(PLUGIN);
+			boolean subscriber = info.annotations.contains(SUBSCRIBER);
+			boolean instanceHandlers = false;
+			
+			if(plugin) {
+				String reason = whyNotInstantiable(info);
+				if(reason != null) problems.add("The plugin class " + info.getClassName() + " " + reason);
+			}
+			
+			//refreshEvents() only registers public eventHandlers of subscribers and classes they inherit from
+			boolean registered = subscriber || isInheritedBySubscriber(info, classes);
+			
+			for(ClassFileInfo.MethodInfo method : info.methods) {
+				if(!method.annotations.contains(EVENT_HANDLER)) continue;
+				
+				String where = info.getClassName() + "." + method.name + method.descriptor;
+				int parameters = countParameters(method.descriptor);
+				boolean called = registered && method.is(ClassFileInfo.ACC_PUBLIC);
+				String problem = null;
+				
+				if(parameters != 1) {
+					problem = "The eventHandler " + where + " takes " + parameters + " parameters, eventHandlers take exactly one event";
+				} else if(!method.descriptor.startsWith("(L")) {
+					problem = "The eventHandler " + where + " takes a primitive or an array, eventHandlers take an event";
+				}
+				
+				if(problem != null && called) problems.add(problem);
+				if(problem != null && !called) ConsoleHandler.println("Warning: " + problem);
+				
+				if(!method.is(ClassFileInfo.ACC_PUBLIC)) {
+					ConsoleHandler.println("Warning: the eventHandler " + where + " is not public, it is never called");
+				}
+				
+				if(called && !method.is(ClassFileInfo.ACC_STATIC)) instanceHandlers = true;
+				
+				if(!registered) {
+					ConsoleHandler.println("Warning: the eventHandler " + where + " is not in a class annotated with @EventHandlerSubscriber, it is never called");
+				}
+			}
+			
+			//the plugin class is instantiated anyway and was checked above
+			if(subscriber && instanceHandlers && !plugin) {
+				String reason = whyNotInstantiable(info);
+				if(reason != null) problems.add("The subscriber " + info.getClassName() + " has non-static eventHandlers but " + reason);
+			}
+		}
+		
+		for(String problem : problems) {
+			ConsoleHandler.println("Invalid plugin jar " + jar.toString() + ": " + problem);
+		}
+		
+		return problems;
+	}
+	
+	/**
+	 * @return why the class cannot be created through its public no-argument constructor, or null if it can
+	 */
+	private static String whyNotInstantiable(ClassFileInfo info) {
+		if(info.is(ClassFileInfo.ACC_INTERFACE)) return "is an interface and cannot be instantiated";
+		if(info.is(ClassFileInfo.ACC_ABSTRACT)) return "is abstract and cannot be instantiated";
+		if(!info.is(ClassFileInfo.ACC_PUBLIC)) return "is not public and cannot be instantiated";
+		if(info.getPublicConstructor("()V") == null) return "has no public no-argument constructor";
+		
+		return null;
+	}
+	
+	private static boolean isInheritedBySubscriber(ClassFileInfo superClass, Map<String, ClassFileInfo> classes) {
+		for(ClassFileInfo info : classes.values()) {
+			if(!info.annotations.contains(SUBSCRIBER)) continue;
+			
+			for(ClassFileInfo current = classes.get(info.superName); current != null; current = classes.get(current.superName)) {
+				if(current == superClass) return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @param descriptor - a method descriptor, e.g. "(ILjava/lang/String;[J)V"
+	 * @return the number of parameters
+	 */
+	static int countParameters(String descriptor) {
+		int count = 0;
+		int i = 1;
+		
+		while(descriptor.charAt(i) != ')') {
+			while(descriptor.charAt(i) == '[') i++;
+			if(descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+			i++;
+			count++;
+		}
+		
+		return count;
+	}
+}
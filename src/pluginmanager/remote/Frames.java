@@ -0,0 +1,243 @@
+package pluginmanager.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import pluginmanager.api.exceptions.RemotePluginException;
+import pluginmanager.util.SerializationFilter;
+
+/**
+ * The wire format between a PluginManager and its remote plugin hosts. Every frame is the length of the rest of the frame (int),
+ * the frame type (byte), the id of the request (long) and the payload. Responses carry the id of their request, so requests can
+ * be pipelined and many frames can be written with one system call.
+ *
+ * @author alexander
+ *
+ */
+final class Frames {
+
+	/** manager to host: whether to log, the serializer class name, then the names of the event types the manager knows */
+	static final byte INIT = 1;
+	/** host to manager: plugin id, version, name, then the names of the event types the plugin handles */
+	static final byte HELLO = 2;
+	/** manager to host: a serialized event */
+	static final byte EVENT = 3;
+	/** host to manager: the exceptions the eventHandlers threw, see writeExceptions() */
+	static final byte RESULT = 4;
+	/** manager to host: the timeout in milliseconds, answered with a RESULT once the plugin was stopped */
+	static final byte SHUTDOWN = 5;
+
+	static final int HEADER = 4 + 1 + 8;
+
+	private static final int MAX_FRAME = 64 * 1024 * 1024;
+	private static final int MAX_MESSAGE = 16 * 1024;
+
+	//exceptions from the host are only deserialized if they consist of exceptions and JDK classes
+	private static final SerializationFilter EXCEPTION_FILTER = new SerializationFilter(Throwable.class::isAssignableFrom);
+
+	private Frames() {
+	}
+
+	/**
+	 * @return the frame, ready to be written
+	 */
+	static ByteBuffer frame(byte type, long id, byte[] payload) {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER + payload.length);
+		buffer.putInt(1 + 8 + payload.length);
+		buffer.put(type);
+		buffer.putLong(id);
+		buffer.put(payload);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Writes the exceptions as class name, message and stack trace, followed by the exception in Java serialization if it can be
+	 * serialized. The receiver uses the serialized exception if it knows its class, and a RemotePluginException otherwise.
+	 */
+	static byte[] writeExceptions(Exception[] exceptions) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeInt(exceptions.length);
+		for(Exception exception : exceptions) {
+			out.writeUTF(exception.getClass().getName());
+			out.writeUTF(truncate(String.valueOf(exception.getMessage())));
+
+			StackTraceElement[] stackTrace = exception.getStackTrace();
+			out.writeInt(stackTrace.length);
+			for(StackTraceElement element : stackTrace) {
+				out.writeUTF(element.getClassName());
+				out.writeUTF(element.getMethodName());
+				out.writeUTF(String.valueOf(element.getFileName()));
+				out.writeInt(element.getLineNumber());
+			}
+
+			byte[] serialized = serialize(exception);
+			out.writeInt(serialized.length);
+			out.write(serialized);
+		}
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static Exception[] readExceptions(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+		Exception[] exceptions = new Exception[in.readInt()];
+		for(int i = 0; i < exceptions.length; i++) {
+			String className = in.readUTF();
+			String message = in.readUTF();
+
+			StackTraceElement[] stackTrace = new StackTraceElement[in.readInt()];
+			for(int j = 0; j < stackTrace.length; j++) {
+				String declaringClass = in.readUTF();
+				String method = in.readUTF();
+				String file = in.readUTF();
+				stackTrace[j] = new StackTraceElement(declaringClass, method, file.equals("null") ? null : file, in.readInt());
+			}
+
+			byte[] serialized = new byte[in.readInt()];
+			in.readFully(serialized);
+
+			exceptions[i] = deserialize(serialized);
+			if(exceptions[i] == null) {
+				exceptions[i] = new RemotePluginException(className + ": " + message);
+				exceptions[i].setStackTrace(stackTrace);
+			}
+		}
+
+		return exceptions;
+	}
+
+	private static String truncate(String message) {
+		return message.length() > MAX_MESSAGE ? message.substring(0, MAX_MESSAGE) : message;
+	}
+
+	private static byte[] serialize(Exception exception) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(exception);
+		} catch (IOException e) {
+			//something the exception references is not serializable
+			return new byte[0];
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static Exception deserialize(byte[] serialized) {
+		if(serialized.length == 0) return null;
+
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			in.setObjectInputFilter(EXCEPTION_FILTER);
+			return (Exception) in.readObject();
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			//the exception class only exists on the other side or the filter rejected something, the rebuilt exception is used
+			return null;
+		}
+	}
+
+	/**
+	 * A received frame.
+	 */
+	static class Frame {
+		final byte type;
+		final long id;
+		final byte[] payload;
+
+		private Frame(byte type, long id, byte[] payload) {
+			this.type = type;
+			this.id = id;
+			this.payload = payload;
+		}
+
+		DataInputStream payload() {
+			return new DataInputStream(new ByteArrayInputStream(this.payload));
+		}
+	}
+
+	/**
+	 * Reads frames from a blocking channel through one buffer, so a single read usually yields many frames.
+	 */
+	static class Reader {
+		private final SocketChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+		Reader(SocketChannel channel) {
+			this.channel = channel;
+			this.buffer.flip();
+		}
+
+		/**
+		 * @return true if a complete frame is buffered, so next() does not block
+		 */
+		boolean hasFrame() {
+			return this.buffer.remaining() >= 4 && this.buffer.remaining() >= 4 + this.buffer.getInt(this.buffer.position());
+		}
+
+		/**
+		 * Blocks until a frame arrived.
+		 *
+		 * @return the frame
+		 * @throws EOFException if the other side closed the connection
+		 */
+		Frame next() throws IOException {
+			this.fill(4);
+			int length = this.buffer.getInt(this.buffer.position());
+			if(length < 9 || length > MAX_FRAME) throw new IOException("Received a malformed frame of " + length + " bytes");
+
+			this.fill(4 + length);
+			this.buffer.getInt();
+			byte type = this.buffer.get();
+			long id = this.buffer.getLong();
+			byte[] payload = new byte[length - 9];
+			this.buffer.get(payload);
+
+			return new Frame(type, id, payload);
+		}
+
+		private void fill(int needed) throws IOException {
+			if(this.buffer.remaining() >= needed) return;
+
+			if(this.buffer.capacity() < needed) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, this.buffer.capacity() * 2));
+				grown.put(this.buffer);
+				this.buffer = grown;
+			} else {
+				this.buffer.compact();
+			}
+
+			//the buffer is in write mode until enough bytes arrived
+			while(this.buffer.position() < needed) {
+				if(this.channel.read(this.buffer) == -1) throw new EOFException("The connection was closed");
+			}
+
+			this.buffer.flip();
+		}
+	}
+
+	/**
+	 * Writes all frames in one gathering write.
+	 */
+	static void write(SocketChannel channel, ByteBuffer[] frames) throws IOException {
+		long remaining = 0;
+		for(ByteBuffer frame : frames) {
+			remaining += frame.remaining();
+		}
+
+		while(remaining > 0) {
+			remaining -= channel.write(frames);
+		}
+	}
+}
@@ -0,0 +1,395 @@
+package pluginmanager.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pluginmanager.api.event.Event;
+import pluginmanager.api.event.EventSerializer;
+import pluginmanager.api.exceptions.RemotePluginException;
+import pluginmanager.api.exceptions.StoredException;
+import pluginmanager.util.ConsoleHandler;
+
+/**
+ * A plugin running in its own JVM (see RemotePluginHost), connected through a Unix domain socket. Events are sent as soon as
+ * they are forwarded, without waiting for the results of earlier events, and all frames queued while the socket was busy are
+ * written together. The results are matched to their events by id.
+ *
+ * @author alexander
+ *
+ */
+public class RemotePlugin {
+
+	private static final Method FORWARD;
+
+	static {
+		try {
+			FORWARD = RemotePlugin.class.getMethod("forward", Event.class);
+		} catch (NoSuchMethodException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	//frames written in one go at most, keeps the gathering write within the limits of the OS
+	private static final int MAX_BATCH = 256;
+
+	private static final ByteBuffer STOP_WRITING = ByteBuffer.allocate(0);
+
+	private final File jar;
+	private final Process process;
+	private final Path socketDirectory;
+	private final SocketChannel channel;
+	private final EventSerializer serializer;
+	private final String id;
+	private final String version;
+	private final String name;
+	private final List<String> handledEventTypes;
+
+	private final AtomicLong ids = new AtomicLong();
+	private final Map<Long, CompletableFuture<Exception[]>> pending = new ConcurrentHashMap<Long, CompletableFuture<Exception[]>>();
+	private final LinkedBlockingQueue<ByteBuffer> outgoing = new LinkedBlockingQueue<ByteBuffer>();
+	private volatile boolean closed = false;
+
+	private RemotePlugin(File jar, Process process, Path socketDirectory, SocketChannel channel, EventSerializer serializer, Frames.Reader reader) throws IOException {
+		this.jar = jar;
+		this.process = process;
+		this.socketDirectory = socketDirectory;
+		this.channel = channel;
+		this.serializer = serializer;
+
+		Frames.Frame hello = reader.next();
+		if(hello.type != Frames.HELLO) throw new IOException("Expected the plugin of " + jar.toString() + " to introduce itself");
+
+		DataInputStream in = hello.payload();
+		this.id = in.readUTF();
+		this.version = in.readUTF();
+		this.name = in.readUTF();
+
+		ArrayList<String> types = new ArrayList<String>();
+		int count = in.readInt();
+		for(int i = 0; i < count; i++) {
+			types.add(in.readUTF());
+		}
+		this.handledEventTypes = Collections.unmodifiableList(types);
+
+		this.thread("PluginManager-Remote-" + this.id + "-Reader", () -> this.read(reader));
+		this.thread("PluginManager-Remote-" + this.id + "-Writer", this::write);
+	}
+
+	/**
+	 * Starts a JVM hosting the plugin jar, with the same classpath as this JVM, and waits until the plugin is initialized.
+	 *
+	 * @param jar - the plugin jar
+	 * @param eventTypes - the event types the plugin may subscribe to, they have to be on the classpath
+	 * @param serializer - serializes the events sent to the plugin, an instance of the same class is used by the host
+	 * @param timeout - the time the host may take to start and initialize the plugin
+	 * @return the connected plugin
+	 * @throws IOException if the host could not be started or did not connect in time
+	 */
+	public static RemotePlugin start(File jar, List<Class<? extends Event>> eventTypes, EventSerializer serializer, Duration timeout) throws IOException {
+		ConsoleHandler.println("Starting remote plugin host for jar file " + jar.toString());
+
+		long deadline = System.nanoTime() + timeout.toNanos();
+		Path directory = Files.createTempDirectory("pluginmanager");
+		Path socket = directory.resolve("host.socket");
+
+		Process process = null;
+		SocketChannel channel = null;
+
+		try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(UnixDomainSocketAddress.of(socket));
+
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), RemotePluginHost.class.getName(),
+					socket.toString(), jar.getAbsolutePath()).inheritIO().start();
+
+			channel = accept(server, process, deadline);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeBoolean(ConsoleHandler.getOutputting());
+			out.writeUTF(serializer.getClass().getName());
+			out.writeInt(eventTypes.size());
+			for(Class<? extends Event> type : eventTypes) {
+				out.writeUTF(type.getName());
+			}
+			out.flush();
+			Frames.write(channel, new ByteBuffer[] {Frames.frame(Frames.INIT, 0, bytes.toByteArray())});
+
+			Frames.Reader reader = new Frames.Reader(channel);
+			//reading blocks, the host is killed if it does not answer in time
+			Process starting = process;
+			Thread watchdog = new Thread(() -> {
+				try {
+					Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+					starting.destroyForcibly();
+				} catch (InterruptedException e) {
+					//started in time
+				}
+			}, "PluginManager-Remote-Watchdog");
+			watchdog.setDaemon(true);
+			watchdog.start();
+
+			try {
+				RemotePlugin plugin = new RemotePlugin(jar, process, directory, channel, serializer, reader);
+				ConsoleHandler.println("Remote plugin " + plugin.getID() + " handles " + plugin.getHandledEventTypes().size() + " event types");
+				return plugin;
+			} finally {
+				watchdog.interrupt();
+			}
+		} catch (IOException | RuntimeException e) {
+			if(channel != null) channel.close();
+			if(process != null) process.destroyForcibly();
+			deleteSocket(directory);
+			throw e;
+		}
+	}
+
+	private static SocketChannel accept(ServerSocketChannel server, Process process, long deadline) throws IOException {
+		server.configureBlocking(false);
+
+		try(Selector selector = Selector.open()) {
+			server.register(selector, SelectionKey.OP_ACCEPT);
+
+			while(true) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if(remaining <= 0) throw new IOException("The remote plugin host did not connect in time");
+				if(!process.isAlive()) throw new IOException("The remote plugin host exited with code " + process.exitValue());
+
+				//wake up regularly to notice a host which died
+				if(selector.select(Math.min(remaining, 100)) == 0) continue;
+
+				SocketChannel channel = server.accept();
+				if(channel == null) continue;
+
+				channel.configureBlocking(true);
+				return channel;
+			}
+		}
+	}
+
+	private void thread(String name, Runnable task) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void read(Frames.Reader reader) {
+		Exception failure = null;
+
+		try {
+			while(true) {
+				Frames.Frame frame = reader.next();
+				CompletableFuture<Exception[]> result = this.pending.remove(frame.id);
+				if(frame.type == Frames.RESULT && result != null) result.complete(Frames.readExceptions(frame.payload));
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+
+		this.closed = true;
+		this.outgoing.offer(STOP_WRITING);
+
+		if(!this.pending.isEmpty()) ConsoleHandler.println("Lost the connection to remote plugin " + this.id + ": " + failure.toString());
+
+		for(CompletableFuture<Exception[]> result : this.pending.values()) {
+			result.completeExceptionally(new RemotePluginException("The host of remote plugin " + this.id + " is gone", failure));
+		}
+		this.pending.clear();
+	}
+
+	private void write() {
+		ArrayList<ByteBuffer> batch = new ArrayList<ByteBuffer>();
+
+		try {
+			while(true) {
+				batch.clear();
+				batch.add(this.outgoing.take());
+				this.outgoing.drainTo(batch, MAX_BATCH - 1);
+
+				boolean stop = batch.remove(STOP_WRITING);
+				if(!batch.isEmpty()) Frames.write(this.channel, batch.toArray(new ByteBuffer[batch.size()]));
+				if(stop) return;
+			}
+		} catch (IOException e) {
+			//the reader notices the broken connection as well and fails the pending requests
+			ConsoleHandler.println("Could not write to remote plugin " + this.id + ": " + e.toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private CompletableFuture<Exception[]> request(byte type, byte[] payload) {
+		CompletableFuture<Exception[]> result = new CompletableFuture<Exception[]>();
+
+		if(this.closed) {
+			result.completeExceptionally(new RemotePluginException("The host of remote plugin " + this.id + " is gone"));
+			return result;
+		}
+
+		long requestId = this.ids.incrementAndGet();
+		this.pending.put(requestId, result);
+		this.outgoing.offer(Frames.frame(type, requestId, payload));
+
+		//the connection might have been lost between the check and registering the request
+		if(this.closed && this.pending.remove(requestId) != null) {
+			result.completeExceptionally(new RemotePluginException("The host of remote plugin " + this.id + " is gone"));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sends the event to the plugin without waiting for its eventHandlers.
+	 *
+	 * @param event
+	 * @return the exceptions the eventHandlers of the plugin threw, completed exceptionally if the host could not be reached
+	 * @throws IOException if the event could not be serialized
+	 */
+	public CompletableFuture<Exception[]> send(Event event) throws IOException {
+		return this.request(Frames.EVENT, this.serializer.serialize(event));
+	}
+
+	/**
+	 * Sends the event to the plugin and waits for its eventHandlers. This is the eventHandler PluginManager registers for every
+	 * event type the plugin handles.
+	 *
+	 * @param event
+	 * @throws StoredException holding the exceptions the eventHandlers of the plugin threw
+	 * @throws RemotePluginException if the host could not be reached
+	 * @throws IOException if the event could not be serialized
+	 */
+	public void forward(Event event) throws StoredException, RemotePluginException, IOException {
+		Exception[] thrown;
+
+		try {
+			thrown = this.send(event).get();
+		} catch (ExecutionException e) {
+			throw (RemotePluginException) e.getCause();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemotePluginException("Interrupted while waiting for remote plugin " + this.id, e);
+		}
+
+		if(thrown.length == 0) return;
+
+		StoredException exception = new StoredException();
+		for(Exception e : thrown) {
+			exception.addException(e);
+		}
+		throw exception;
+	}
+
+	/**
+	 * Stops the plugin and its JVM. The plugin receives its ShutdownEvent in its own JVM, the JVM is killed if it does not exit
+	 * before the timeout.
+	 *
+	 * @param timeout
+	 * @return true if the host exited in time
+	 */
+	public boolean close(Duration timeout) {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		boolean inTime = true;
+
+		ByteBuffer payload = ByteBuffer.allocate(8).putLong(timeout.toMillis());
+		CompletableFuture<Exception[]> stopped = this.request(Frames.SHUTDOWN, payload.array());
+
+		try {
+			for(Exception e : stopped.get(remainingMillis(deadline), TimeUnit.MILLISECONDS)) {
+				ConsoleHandler.println("Remote plugin " + this.id + " threw while stopping: " + e.toString());
+			}
+			inTime = this.process.waitFor(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			inTime = false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			inTime = false;
+		}
+
+		if(!inTime) {
+			ConsoleHandler.println("Remote plugin " + this.id + " did not stop in time, killing its host");
+			this.process.destroyForcibly();
+		}
+
+		this.outgoing.offer(STOP_WRITING);
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			ConsoleHandler.println("Could not close the connection to remote plugin " + this.id + ": " + e.getMessage());
+		}
+		deleteSocket(this.socketDirectory);
+
+		return inTime;
+	}
+
+	private static long remainingMillis(long deadline) {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+	}
+
+	private static void deleteSocket(Path directory) {
+		try {
+			Files.deleteIfExists(directory.resolve("host.socket"));
+			Files.deleteIfExists(directory);
+		} catch (IOException e) {
+			ConsoleHandler.println("Could not delete the socket directory " + directory.toString());
+		}
+	}
+
+	/**
+	 * @return the method PluginManager registers as eventHandler of a remote plugin, see forward()
+	 */
+	public static Method getForwardingMethod() {
+		return FORWARD;
+	}
+
+	public File getJar() {
+		return this.jar;
+	}
+
+	public String getID() {
+		return this.id;
+	}
+
+	public String getVersion() {
+		return this.version;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the names of the event types the plugin has eventHandlers for
+	 */
+	public List<String> getHandledEventTypes() {
+		return this.handledEventTypes;
+	}
+
+	public boolean isAlive() {
+		return !this.closed && this.process.isAlive();
+	}
+}
@@ -0,0 +1,135 @@
+package pluginmanager.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import pluginmanager.api.annotations.Plugin;
+import pluginmanager.api.event.Event;
+import pluginmanager.api.event.EventSerializer;
+import pluginmanager.api.exceptions.StoredException;
+import pluginmanager.core.PluginManager;
+import pluginmanager.util.ConsoleHandler;
+
+/**
+ * The main class of a JVM hosting one remote plugin (see RemotePlugin). The plugin is loaded by a PluginManager of its own, every
+ * received event is sent through it and the exceptions of the eventHandlers are sent back. Events are handled one after another
+ * in the order they arrived, results are written once no further event is buffered, so a burst of events is answered in one write.
+ *
+ * Usage (done by RemotePlugin:start()):
+ * java -cp [classpath] pluginmanager.remote.RemotePluginHost [socket] [plugin jar]
+ *
+ * @author alexander
+ *
+ */
+public class RemotePluginHost {
+
+	public static void main(String[] args) throws Exception {
+		if(args.length != 2) {
+			System.err.println("Usage: RemotePluginHost <socket> <plugin jar>");
+			System.exit(2);
+		}
+
+		File jar = new File(args[1]);
+
+		try(SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+			channel.connect(UnixDomainSocketAddress.of(args[0]));
+			Frames.Reader reader = new Frames.Reader(channel);
+
+			Frames.Frame init = reader.next();
+			if(init.type != Frames.INIT) throw new IOException("Expected the plugin manager to send the event types first");
+
+			DataInputStream in = init.payload();
+			ConsoleHandler.setOutputting(in.readBoolean());
+			EventSerializer serializer = (EventSerializer) Class.forName(in.readUTF()).getConstructor().newInstance();
+
+			PluginManager manager = new PluginManager();
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				try {
+					manager.injectEvent(Class.forName(name).asSubclass(Event.class));
+				} catch (ClassNotFoundException | ClassCastException e) {
+					ConsoleHandler.println("Remote plugin host cannot use event type " + name + ": " + e.toString());
+				}
+			}
+
+			manager.addPluginToLoad(jar);
+			manager.initialize();
+
+			List<Plugin> loaded = manager.getLoadedPlugins();
+			if(loaded.isEmpty()) throw new IOException("No plugin could be loaded from " + jar.toString());
+
+			Plugin plugin = loaded.get(0);
+			Frames.write(channel, new ByteBuffer[] {Frames.frame(Frames.HELLO, 0, hello(plugin, manager.getHandledEventTypes(plugin.id())))});
+
+			serve(channel, reader, manager, serializer);
+		}
+	}
+
+	private static byte[] hello(Plugin plugin, List<Class<? extends Event>> handled) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeUTF(plugin.id());
+		out.writeUTF(plugin.version());
+		out.writeUTF(plugin.name());
+		out.writeInt(handled.size());
+		for(Class<? extends Event> type : handled) {
+			out.writeUTF(type.getName());
+		}
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void serve(SocketChannel channel, Frames.Reader reader, PluginManager manager, EventSerializer serializer) throws IOException {
+		ArrayList<ByteBuffer> results = new ArrayList<ByteBuffer>();
+
+		while(true) {
+			Frames.Frame frame = reader.next();
+
+			if(frame.type == Frames.EVENT) {
+				results.add(Frames.frame(Frames.RESULT, frame.id, Frames.writeExceptions(handle(frame, manager, serializer))));
+			} else if(frame.type == Frames.SHUTDOWN) {
+				Exception[] thrown = new Exception[0];
+				try {
+					manager.shutdown(Duration.ofMillis(frame.payload().readLong()));
+				} catch (StoredException e) {
+					thrown = e.recordedExceptions();
+				}
+
+				results.add(Frames.frame(Frames.RESULT, frame.id, Frames.writeExceptions(thrown)));
+				Frames.write(channel, results.toArray(new ByteBuffer[results.size()]));
+				return;
+			}
+
+			//answer a burst of events in one write, but don't keep results back while waiting for the next event
+			if(!reader.hasFrame()) {
+				Frames.write(channel, results.toArray(new ByteBuffer[results.size()]));
+				results.clear();
+			}
+		}
+	}
+
+	private static Exception[] handle(Frames.Frame frame, PluginManager manager, EventSerializer serializer) {
+		try {
+			manager.sendEvent(serializer.deserialize(frame.payload));
+		} catch (StoredException e) {
+			return e.recordedExceptions();
+		} catch (IOException | RuntimeException e) {
+			return new Exception[] {e};
+		}
+
+		return new Exception[0];
+	}
+}
@@ -0,0 +1,237 @@
+package pluginmanager.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import pluginmanager.api.exceptions.StoredException;
+import pluginmanager.core.PluginManager;
+import pluginmanager.loading.JarCache;
+import pluginmanager.loading.JarDiscoverer;
+
+/**
+ * Creates and finds dynamic class data sharing (AppCDS) archives for a set of plugins, so the classes loaded during
+ * PluginManager:initialize() are mapped from the archive instead of being parsed and verified on every start.
+ *
+ * An archive belongs to exactly one plugin set: its name contains a fingerprint of the plugin jar contents and the JVM version.
+ * The JVM can only use an archive it was started with, so a launcher should call findArchive() and, if an archive was found,
+ * add getJvmOption() to the command line of the application. The JVM refuses archives if the classpath contains non-empty
+ * directories, so the application and this library have to be on the classpath as jars.
+ *
+ * Usage:
+ * java -cp [classpath] pluginmanager.util.CdsArchiveTool dump [plugin directory] [archive directory]
+ * java -cp [classpath] pluginmanager.util.CdsArchiveTool run [plugin directory]
+ * java -cp [classpath] pluginmanager.util.CdsArchiveTool benchmark [plugin directory] [archive directory] [runs]
+ *
+ * @author alexander
+ *
+ */
+public class CdsArchiveTool {
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) usage(null);
+
+		switch(args[0]) {
+			case "dump":
+				if(args.length != 3) usage("dump [plugin directory] [archive directory]");
+				File archive = dumpArchive(new File(args[1]), new File(args[2]));
+				System.out.println("Created archive " + archive.toString() + ", start the JVM with " + getJvmOption(archive));
+				break;
+			case "run":
+				if(args.length != 2) usage("run [plugin directory]");
+				initialize(new File(args[1]));
+				break;
+			case "benchmark":
+				if(args.length != 3 && args.length != 4) usage("benchmark [plugin directory] [archive directory] [runs]");
+				int runs = 10;
+				if(args.length > 3) {
+					try {
+						runs = Integer.parseInt(args[3]);
+					} catch (NumberFormatException e) {
+						usage("benchmark [plugin directory] [archive directory] [runs], runs has to be a number");
+					}
+				}
+				benchmark(new File(args[1]), new File(args[2]), runs);
+				break;
+			default:
+				System.err.println("Unknown mode " + args[0]);
+				usage(null);
+		}
+	}
+
+	private static void usage(String mode) {
+		System.err.println("Usage: CdsArchiveTool " + (mode == null ? "dump|run|benchmark [plugin directory] [archive directory] [runs]" : mode));
+		System.exit(1);
+	}
+
+	/**
+	 * Computes the fingerprint of a plugin set, it changes whenever a plugin jar is added, removed or changed or a different JVM is used.
+	 *
+	 * @param pluginDirectory
+	 * @return the fingerprint in hex
+	 * @throws IOException
+	 */
+	public static String fingerprint(File pluginDirectory) throws IOException {
+		ArrayList<String> hashes = new ArrayList<String>();
+
+		for(File jar : JarDiscoverer.getJars(pluginDirectory, true)) {
+			hashes.add(JarCache.hash(jar));
+		}
+
+		Collections.sort(hashes);
+
+		MessageDigest digest = FileHasher.newDigest();
+
+		//archives only work with the exact JVM build they were created with
+		digest.update(System.getProperty("java.vm.version").getBytes(StandardCharsets.UTF_8));
+		for(String hash : hashes) {
+			digest.update(hash.getBytes(StandardCharsets.UTF_8));
+		}
+
+		String hex = FileHasher.toHex(digest.digest());
+
+		//the first 16 bytes are plenty to tell plugin sets apart
+		return hex.substring(0, 32);
+	}
+
+	/**
+	 * Gets the archive for the plugin set in the plugin directory.
+	 *
+	 * @param archiveDirectory
+	 * @param pluginDirectory
+	 * @return the archive or null if no archive matching the plugin set exists
+	 * @throws IOException
+	 */
+	public static File findArchive(File archiveDirectory, File pluginDirectory) throws IOException {
+		File archive = getArchiveFile(archiveDirectory, fingerprint(pluginDirectory));
+
+		if(archive.isFile()) {
+			ConsoleHandler.println("Found class data sharing archive " + archive.toString());
+			return archive;
+		}
+
+		ConsoleHandler.println("No class data sharing archive matches the plugins in " + pluginDirectory.toString());
+		return null;
+	}
+
+	/**
+	 * @param archive
+	 * @return the option which makes the JVM use the archive
+	 */
+	public static String getJvmOption(File archive) {
+		return "-XX:SharedArchiveFile=" + archive.getAbsolutePath();
+	}
+
+	/**
+	 * @return true if this JVM was started with a class data sharing archive other than the default one
+	 */
+	public static boolean isArchiveInUse() {
+		for(String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if(argument.startsWith("-XX:SharedArchiveFile=")) return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Initializes the plugins in a child JVM which writes a dynamic archive of all classes it loaded when it exits.
+	 *
+	 * @param pluginDirectory
+	 * @param archiveDirectory
+	 * @return the archive
+	 * @throws IOException if the child JVM could not be started or failed to create the archive
+	 * @throws InterruptedException
+	 */
+	public static File dumpArchive(File pluginDirectory, File archiveDirectory) throws IOException, InterruptedException {
+		if(!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs()) throw new IOException("Could not create directory " + archiveDirectory.toString());
+
+		String fingerprint = fingerprint(pluginDirectory);
+		File archive = getArchiveFile(archiveDirectory, fingerprint);
+
+		ConsoleHandler.println("Creating class data sharing archive " + archive.toString());
+
+		int exitCode = startChild(Arrays.asList("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath()), pluginDirectory);
+
+		if(exitCode != 0 || !archive.isFile()) throw new IOException("Creating the archive failed, the JVM exited with " + exitCode);
+
+		return archive;
+	}
+
+	/**
+	 * Compares the time cold starts of a child JVM initializing the plugins take with and without the archive. The archive is
+	 * created first if it doesn't exist.
+	 *
+	 * @param pluginDirectory
+	 * @param archiveDirectory
+	 * @param runs - the number of starts per variant
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void benchmark(File pluginDirectory, File archiveDirectory, int runs) throws IOException, InterruptedException {
+		File archive = findArchive(archiveDirectory, pluginDirectory);
+		if(archive == null) archive = dumpArchive(pluginDirectory, archiveDirectory);
+
+		List<String> without = Collections.emptyList();
+		List<String> with = Arrays.asList(getJvmOption(archive));
+
+		//warm up the file system cache, so the first measured run isn't slower than the others
+		startChild(without, pluginDirectory);
+		startChild(with, pluginDirectory);
+
+		long withoutNanos = 0;
+		long withNanos = 0;
+
+		//alternate the variants, so changing load on the machine affects both of them
+		for(int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			startChild(without, pluginDirectory);
+			withoutNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			startChild(with, pluginDirectory);
+			withNanos += System.nanoTime() - start;
+		}
+
+		System.out.println("Average cold start over " + runs + " runs:");
+		System.out.println("  without archive: " + (withoutNanos / runs / 1000000) + " ms");
+		System.out.println("  with archive:    " + (withNanos / runs / 1000000) + " ms");
+	}
+
+	private static File getArchiveFile(File archiveDirectory, String fingerprint) {
+		return new File(archiveDirectory, "plugins-" + fingerprint + ".jsa");
+	}
+
+	private static int startChild(List<String> jvmOptions, File pluginDirectory) throws IOException, InterruptedException {
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(jvmOptions);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(CdsArchiveTool.class.getName());
+		command.add("run");
+		command.add(pluginDirectory.getAbsolutePath());
+
+		return new ProcessBuilder(command).inheritIO().start().waitFor();
+	}
+
+	private static void initialize(File pluginDirectory) throws IOException {
+		PluginManager manager = new PluginManager();
+
+		for(File jar : JarDiscoverer.getJars(pluginDirectory, true)) {
+			manager.addPluginToLoad(jar);
+		}
+
+		try {
+			manager.initialize();
+		} catch (StoredException e) {
+			//the classes loaded up to here are still worth archiving
+			e.printStackTrace();
+		}
+	}
+}
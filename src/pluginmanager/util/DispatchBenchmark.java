@@ -0,0 +1,95 @@
+package pluginmanager.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import pluginmanager.api.event.Event;
+import pluginmanager.core.events.Dispatcher;
+import pluginmanager.core.events.DispatcherGenerator;
+import pluginmanager.core.events.RegisteredHandler;
+
+/**
+ * Compares the cost of dispatching one event to a number of eventHandlers with reflection (Method:invoke()), with bound
+ * MethodHandles in a loop and with a generated dispatcher class.
+ *
+ * Usage:
+ * java -cp [classpath] pluginmanager.util.DispatchBenchmark [handlers] [events]
+ *
+ * @author alexander
+ *
+ */
+public class DispatchBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int handlerCount = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int events = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+
+		Method method = Subscriber.class.getMethod("onEvent", BenchmarkEvent.class);
+		Subscriber[] subscribers = new Subscriber[handlerCount];
+		RegisteredHandler[] handlers = new RegisteredHandler[handlerCount];
+
+		for(int i = 0; i < handlerCount; i++) {
+			subscribers[i] = new Subscriber();
+			handlers[i] = new RegisteredHandler(method, subscribers[i]);
+		}
+
+		Dispatcher loop = DispatcherGenerator.loop(handlers);
+		Dispatcher generated = DispatcherGenerator.generate(handlers);
+
+		System.out.println("Dispatching " + events + " events to " + handlerCount + " eventHandlers");
+
+		//run every variant twice, the first round warms up the JIT
+		for(int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for(int i = 0; i < events; i++) {
+				BenchmarkEvent event = new BenchmarkEvent();
+				for(Subscriber subscriber : subscribers) {
+					try {
+						method.invoke(subscriber, event);
+					} catch (IllegalAccessException | InvocationTargetException e) {
+						throw new IllegalStateException(e);
+					}
+					event.addHandler(method);
+				}
+			}
+			report("reflection", round, start, events);
+
+			start = System.nanoTime();
+			for(int i = 0; i < events; i++) {
+				loop.dispatch(new BenchmarkEvent());
+			}
+			report("method handles", round, start, events);
+
+			start = System.nanoTime();
+			for(int i = 0; i < events; i++) {
+				generated.dispatch(new BenchmarkEvent());
+			}
+			report("generated", round, start, events);
+		}
+
+		long received = 0;
+		for(Subscriber subscriber : subscribers) {
+			received += subscriber.received;
+		}
+		System.out.println("Events received: " + received);
+	}
+
+	private static void report(String variant, int round, long start, int events) {
+		if(round == 0) return;
+		System.out.println(String.format("  %-15s %8.1f ns/event", variant + ":", (System.nanoTime() - start) / (double) events));
+	}
+
+	public static class BenchmarkEvent extends Event {
+		public BenchmarkEvent() {
+			super(null);
+		}
+	}
+
+	public static class Subscriber {
+		private long received;
+
+		public void onEvent(BenchmarkEvent event) {
+			this.received++;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package pluginmanager.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class FileHasher {
+	
+	/**
+	 * Computes the SHA-256 hash of the file contents.
+	 * 
+	 * @param file
+	 * @return the hash in hex
+	 * @throws IOException
+	 */
+	public static String sha256(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		
+		try(InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+			byte[] buffer = new byte[8192];
+			while(in.read(buffer) != -1);
+		}
+		
+		return toHex(digest.digest());
+	}
+	
+	public static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//every JVM has to support SHA-256
+			throw new IOException(e);
+		}
+	}
+	
+	public static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for(byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
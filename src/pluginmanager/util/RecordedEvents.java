@@ -0,0 +1,111 @@
+package pluginmanager.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events emitted by the PluginManager. They are recorded like any other JFR event, e.g. with
+ * -XX:StartFlightRecording or jcmd [pid] JFR.start, and cost next to nothing while no recording has them enabled.
+ *
+ * Dispatch and SlowHandler are disabled unless the recording settings enable them (e.g. pluginmanager.Dispatch#enabled=true),
+ * as they are emitted per event and SlowHandler makes the PluginManager time every eventHandler on its own. The threshold of
+ * SlowHandler can be changed in the recording settings, e.g. pluginmanager.SlowHandler#threshold=5 ms
+ *
+ * @author alexander
+ *
+ */
+public class RecordedEvents {
+
+	//only asked whether their type is enabled, which is the same for every instance, so no event is created per dispatch
+	private static final Dispatch DISPATCH = new Dispatch();
+	private static final SlowHandler SLOW_HANDLER = new SlowHandler();
+
+	/**
+	 * @return true if a recording wants Dispatch events
+	 */
+	public static boolean isDispatchEnabled() {
+		return DISPATCH.isEnabled();
+	}
+
+	/**
+	 * @return true if a recording wants SlowHandler events, only then is every eventHandler timed on its own
+	 */
+	public static boolean isSlowHandlerEnabled() {
+		return SLOW_HANDLER.isEnabled();
+	}
+
+	@Name("pluginmanager.Dispatch")
+	@Label("Event Dispatch")
+	@Description("An event was sent to its eventHandlers")
+	@Category("Plugin Manager")
+	@Enabled(false)
+	@StackTrace(false)
+	public static class Dispatch extends Event {
+		@Label("Event Type")
+		public String eventType;
+
+		@Label("Routing Key")
+		public String routingKey;
+
+		@Label("Plugin")
+		@Description("The only plugin the event was sent to, if it was sent to a single plugin")
+		public String plugin;
+
+		@Label("Handlers")
+		public int handlers;
+
+		@Label("Failed Handlers")
+		public int failed;
+	}
+
+	@Name("pluginmanager.SlowHandler")
+	@Label("Slow Event Handler")
+	@Description("An eventHandler took longer than the threshold to handle an event")
+	@Category("Plugin Manager")
+	@Enabled(false)
+	@Threshold("20 ms")
+	@StackTrace(false)
+	public static class SlowHandler extends Event {
+		@Label("Event Type")
+		public String eventType;
+
+		@Label("Handler")
+		public String handler;
+
+		@Label("Plugin")
+		public String plugin;
+
+		@Label("Failed")
+		public boolean failed;
+	}
+
+	@Name("pluginmanager.JarLoad")
+	@Label("Jar Load")
+	@Description("A plugin jar was loaded into the JVM")
+	@Category("Plugin Manager")
+	public static class JarLoad extends Event {
+		@Label("Jar")
+		public String jar;
+
+		@Label("Classes")
+		public int classes;
+	}
+
+	@Name("pluginmanager.RefreshEvents")
+	@Label("Event Handler Refresh")
+	@Description("The eventHandlers of all plugins were registered and indexed again")
+	@Category("Plugin Manager")
+	public static class RefreshEvents extends Event {
+		@Label("Event Types")
+		public int eventTypes;
+
+		@Label("Handlers")
+		public int handlers;
+	}
+}
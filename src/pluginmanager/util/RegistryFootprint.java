@@ -0,0 +1,156 @@
+package pluginmanager.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pluginmanager.api.event.Event;
+import pluginmanager.core.events.HandlerRegistry;
+import pluginmanager.core.events.RegisteredHandler;
+
+/**
+ * Measures the heap taken by the eventHandler bookkeeping of a large plugin set, comparing the previous layout (a HashMap of
+ * growable ArrayLists per event type and a HashMap of ArrayLists per plugin for the custom annotations) with the HandlerRegistry
+ * and the read-only views used now. The handlers themselves are shared by both layouts and not counted.
+ *
+ * Usage:
+ * java -cp [classpath] pluginmanager.util.RegistryFootprint [handlers] [plugins] [custom annotations]
+ *
+ * @author alexander
+ *
+ */
+public class RegistryFootprint {
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final Class<? extends Event>[] TYPES = new Class[] {EventA.class, EventB.class, EventC.class, EventD.class, EventE.class, EventF.class, EventG.class, EventH.class};
+
+	public static void main(String[] args) throws Exception {
+		int handlerCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int pluginCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int annotationCount = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+		Method method = RegistryFootprint.class.getMethod("onEvent", Event.class);
+		RegisteredHandler[] handlers = new RegisteredHandler[handlerCount];
+		for(int i = 0; i < handlerCount; i++) {
+			handlers[i] = new RegisteredHandler(method, null, "plugin" + (i % pluginCount));
+		}
+
+		System.out.println(handlerCount + " eventHandlers of " + pluginCount + " plugins, " + TYPES.length + " event types, " + annotationCount + " custom annotations");
+
+		long before = usedHeap();
+		Object previous = previousLayout(handlers, pluginCount, annotationCount);
+		long previousBytes = usedHeap() - before;
+
+		before = usedHeap();
+		Object current = currentLayout(handlers, pluginCount, annotationCount);
+		long currentBytes = usedHeap() - before;
+
+		System.out.println(String.format("  %-10s %10d bytes", "previous:", previousBytes));
+		System.out.println(String.format("  %-10s %10d bytes", "current:", currentBytes));
+
+		//the accessors used to copy on every call
+		@SuppressWarnings("unchecked")
+		Map<Class<?>, ArrayList<RegisteredHandler>> listeners = (Map<Class<?>, ArrayList<RegisteredHandler>>) ((Object[]) previous)[0];
+		HandlerRegistry registry = (HandlerRegistry) ((Object[]) current)[0];
+
+		long allocated = allocatedBytes();
+		for(int i = 0; i < 1000; i++) {
+			ArrayList<RegisteredHandler> list = listeners.get(TYPES[i % TYPES.length]);
+			consume(list.toArray(new RegisteredHandler[list.size()]));
+		}
+		long copying = (allocatedBytes() - allocated) / 1000;
+
+		allocated = allocatedBytes();
+		for(int i = 0; i < 1000; i++) {
+			consume(registry.getHandlers(TYPES[i % TYPES.length]));
+		}
+		long viewing = (allocatedBytes() - allocated) / 1000;
+
+		System.out.println(String.format("  %-10s %10d bytes per handler lookup (copy)", "previous:", copying));
+		System.out.println(String.format("  %-10s %10d bytes per handler lookup (view)", "current:", viewing));
+	}
+
+	private static Object previousLayout(RegisteredHandler[] handlers, int pluginCount, int annotationCount) {
+		HashMap<Class<?>, ArrayList<RegisteredHandler>> listeners = new HashMap<Class<?>, ArrayList<RegisteredHandler>>();
+		for(Class<? extends Event> type : TYPES) {
+			listeners.put(type, new ArrayList<RegisteredHandler>());
+		}
+		for(int i = 0; i < handlers.length; i++) {
+			listeners.get(TYPES[i % TYPES.length]).add(handlers[i]);
+		}
+
+		//every plugin got an empty list per custom annotation
+		ArrayList<HashMap<String, ArrayList<Class<?>>>> plugins = new ArrayList<HashMap<String, ArrayList<Class<?>>>>();
+		for(int i = 0; i < pluginCount; i++) {
+			HashMap<String, ArrayList<Class<?>>> annotated = new HashMap<String, ArrayList<Class<?>>>();
+			for(int a = 0; a < annotationCount; a++) {
+				annotated.put("annotation" + a, new ArrayList<Class<?>>());
+			}
+			plugins.add(annotated);
+		}
+
+		return new Object[] {listeners, plugins};
+	}
+
+	private static Object currentLayout(RegisteredHandler[] handlers, int pluginCount, int annotationCount) {
+		HandlerRegistry registry = new HandlerRegistry();
+		HashMap<Class<?>, ArrayList<RegisteredHandler>> added = new HashMap<Class<?>, ArrayList<RegisteredHandler>>();
+		for(Class<? extends Event> type : TYPES) {
+			registry.register(type);
+			added.put(type, new ArrayList<RegisteredHandler>());
+		}
+		for(int i = 0; i < handlers.length; i++) {
+			added.get(TYPES[i % TYPES.length]).add(handlers[i]);
+		}
+		for(Class<? extends Event> type : TYPES) {
+			registry.add(type, added.get(type));
+		}
+		added = null;
+
+		//plugins without custom annotated classes share the empty map
+		ArrayList<Map<String, List<Class<?>>>> plugins = new ArrayList<Map<String, List<Class<?>>>>();
+		for(int i = 0; i < pluginCount; i++) {
+			plugins.add(Collections.<String, List<Class<?>>>emptyMap());
+		}
+
+		return new Object[] {registry, plugins};
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static int sink;
+
+	private static void consume(RegisteredHandler[] value) {
+		sink += value.length;
+	}
+
+	private static void consume(List<RegisteredHandler> value) {
+		sink += value.size();
+	}
+
+	public static void onEvent(Event event) {
+	}
+
+	public static class EventA extends Event { public EventA() { super(null); } }
+	public static class EventB extends Event { public EventB() { super(null); } }
+	public static class EventC extends Event { public EventC() { super(null); } }
+	public static class EventD extends Event { public EventD() { super(null); } }
+	public static class EventE extends Event { public EventE() { super(null); } }
+	public static class EventF extends Event { public EventF() { super(null); } }
+	public static class EventG extends Event { public EventG() { super(null); } }
+	public static class EventH extends Event { public EventH() { super(null); } }
+}
@@ -0,0 +1,49 @@
+package pluginmanager.util;
+
+import java.io.ObjectInputFilter;
+import java.util.function.Predicate;
+
+/**
+ * Restricts what Java serialization may create from data which did not necessarily come from this application, e.g. a remote
+ * plugin host or a file anyone could write. Classes of the JDK and primitives are allowed, any other class only if the
+ * predicate accepts it. Deeply nested graphs, huge arrays and too many references are rejected as well.
+ *
+ * @author alexander
+ *
+ */
+public class SerializationFilter implements ObjectInputFilter {
+
+	private static final long MAX_DEPTH = 32;
+	private static final long MAX_REFERENCES = 100000;
+	private static final long MAX_ARRAY_LENGTH = 100000;
+
+	private final Predicate<Class<?>> allowed;
+
+	/**
+	 * @param allowed - decides about every class which is not part of the JDK
+	 */
+	public SerializationFilter(Predicate<Class<?>> allowed) {
+		this.allowed = allowed;
+	}
+
+	@Override
+	public Status checkInput(FilterInfo info) {
+		if(info.depth() > MAX_DEPTH || info.references() > MAX_REFERENCES || info.arrayLength() > MAX_ARRAY_LENGTH) return Status.REJECTED;
+
+		Class<?> type = info.serialClass();
+		if(type == null) return Status.ALLOWED;
+
+		while(type.isArray()) type = type.getComponentType();
+
+		return type.isPrimitive() || isJdkClass(type) || this.allowed.test(type) ? Status.ALLOWED : Status.REJECTED;
+	}
+
+	/**
+	 * @param type
+	 * @return true if the class was loaded by the boot or platform class loader
+	 */
+	public static boolean isJdkClass(Class<?> type) {
+		ClassLoader loader = type.getClassLoader();
+		return loader == null || loader == ClassLoader.getPlatformClassLoader();
+	}
+}